@@ -4,13 +4,23 @@
  * Single-file Java chatbot with:
  *  - Simple NLP preprocessing (tokenize, stopwords, punctuation removal)
  *  - TF–IDF + cosine similarity FAQ matching
+ *  - Typo tolerance: unknown words are mapped to the nearest vocabulary term (trigram index + edit distance)
  *  - Rule-based replies (greeting, thanks, bye)
  *  - GUI (Swing) with menu: Load FAQs, Save FAQs, Add FAQ
- *  - FAQ persistence using "faq.txt" (format: question|answer per line)
+ *  - FAQ persistence using "faq.txt" (format: question|answer per line) plus a write-ahead
+ *    journal (faq.journal.<n>) that is compacted back into faq.txt
+ *  - Headless multi-session TCP server mode (one line per message)
+ *  - Batch evaluation of labelled queries (accuracy, confidence, latency, threshold sweep)
  *
  * Usage:
- *   javac AIChatbotFull.java
+ *   javac AIChatbotFull.java   (with BenchHarness.java in the same directory)
  *   java AIChatbotFull
+ *   java AIChatbotFull --server [port]     (default port 5050)
+ *   java AIChatbotFull --eval pairs.txt [0.1,0.18,0.3]   (pairs: query|expected question)
+ *   java AIChatbotFull --bench [1000,10000,100000]       (synthetic corpus sizes)
+ *   java -Dchatbot.shards=8 -Dchatbot.parallelMinDocs=50000 AIChatbotFull   (parallel scoring of large corpora)
+ *   java -Dchatbot.lsh=32,1,4000 AIChatbotFull   (approximate MinHash retrieval: bands,rows,maxCandidates)
+ *   java -Dchatbot.vectorPrecision=int8 AIChatbotFull   (float32 default; int8 quantized index weights)
  *
  * Author: Generated for Ankit
  */
@@ -20,22 +30,396 @@ import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.management.*;
 
 public class AIChatbotFull {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            try {
+                BenchHarness.run(AIChatbotFull.class, args, () -> ChatbotBenchmark.run(args.length > 1 ? args[1] : null));
+            } catch (Exception e) {
+                System.err.println("Benchmark error: " + e.getMessage());
+            }
+            return;
+        }
+
         ChatbotEngine engine = new ChatbotEngine();
-        engine.loadDefaultFaqs();           // load built-in FAQs
-        engine.loadFaqFileIfExists("faq.txt"); // optionally load persisted faqs if file exists
+        if (!engine.openIndexFile("faq.txt", "faq.idx")) { // binary index from the last run, if still valid
+            if (!FaqJournal.isSnapshot(Paths.get("faq.txt"))) {
+                engine.loadDefaultFaqs();       // load built-in FAQs (a journal snapshot already holds them, edits included)
+            }
+            engine.loadFaqFileIfExists("faq.txt"); // optionally load persisted faqs if file exists
+            engine.writeIndexFile("faq.txt", "faq.idx");
+        }
+        engine.openJournal("faq.txt", "faq.journal"); // changes since the last snapshot, then log new ones
+        engine.loadRulesFileIfExists("rules.txt"); // optional extra rules (priority|name|keywords|response)
+        engine.startMetricsReporting(60);          // JMX MBean + periodic summary on stdout
+
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : ChatServer.DEFAULT_PORT;
+            try {
+                new ChatServer(engine, port).serve();
+            } catch (IOException e) {
+                System.err.println("Server error: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--eval")) {
+            try {
+                double[] thresholds = BatchEvaluator.parseThresholds(args.length > 2 ? args[2] : null, engine.matchThreshold());
+                new BatchEvaluator(engine).run(Paths.get(args[1]), thresholds, System.out);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Evaluation error: " + e.getMessage());
+            }
+            return;
+        }
 
         SwingUtilities.invokeLater(() -> {
             ChatGuiWithMenu gui = new ChatGuiWithMenu(engine);
             gui.show();
         });
     }
+
+    // management interface of ChatbotMetrics; JMX only introspects public interfaces
+    public interface MetricsMBean {
+        long getMatches();
+        long getFallbacks();
+        long getRuleHits();
+        long getEmptyQueries();
+        int getFaqCount();
+        int getTermCount();
+        long getIndexGeneration();
+        String getCacheStats();
+        String[] getStageLatencies();
+        double stageP99Micros(String stage);
+        void reset();
+    }
+}
+
+/* -----------------------------
+   Headless chat server (TCP, one line per message)
+   ----------------------------- */
+// Protocol: each request line gets the reply lines back followed by an empty line.
+// "/stats" returns cache counters, "/quit" closes the session. Idle sessions time out and a line
+// longer than the limit ends the session, so one client cannot pin a thread or buffer unbounded input.
+class ChatServer {
+    static final int DEFAULT_PORT = 5050;
+    // -Dchatbot.idleTimeoutMillis / -Dchatbot.maxLineChars
+    static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("chatbot.idleTimeoutMillis", 300000);
+    static final int MAX_LINE_CHARS = Integer.getInteger("chatbot.maxLineChars", 4096);
+    private final ChatbotEngine engine;
+    private final int port;
+
+    ChatServer(ChatbotEngine engine, int port) {
+        this.engine = engine;
+        this.port = port;
+    }
+
+    // accept loop; every session runs on its own (virtual, when available) thread
+    public void serve() throws IOException {
+        ExecutorService sessions = sessionExecutor();
+        try (ServerSocket server = new ServerSocket(port, 1024)) {
+            System.out.println("Chatbot server listening on port " + port);
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> handle(socket));
+            }
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            StringBuilder buf = new StringBuilder();
+            String line;
+            while ((line = readLine(in, buf)) != null) {
+                if (line.length() > MAX_LINE_CHARS) {
+                    out.write("Message too long (limit " + MAX_LINE_CHARS + " characters)\n\n");
+                    out.flush();
+                    break;
+                }
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (line.equals("/quit")) break;
+                String reply = line.equals("/stats") ? engine.cacheStats().toString() : engine.respond(line);
+                out.write(reply);
+                out.write("\n\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away or idled out; nothing to clean up beyond the socket
+        }
+    }
+
+    // next line without its terminator, null at end of stream; reading stops one char past
+    // MAX_LINE_CHARS, so an overlong line comes back truncated and longer than the limit
+    static String readLine(BufferedReader in, StringBuilder buf) throws IOException {
+        buf.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') break;
+            if (c == '\r') {
+                in.mark(1);
+                if (in.read() != '\n') in.reset();
+                break;
+            }
+            buf.append((char) c);
+            if (buf.length() > MAX_LINE_CHARS) break;
+        }
+        return c < 0 && buf.length() == 0 ? null : buf.toString();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() on JDK 21+, a cached pool of daemon threads otherwise
+    static ExecutorService sessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "chat-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
+
+/* -----------------------------
+   Batch evaluation (replay labelled queries)
+   ----------------------------- */
+// Input, one pair per line: query|expected FAQ question. Queries run in parallel on the
+// common fork-join pool; the top-k of every query is kept so any number of thresholds can be
+// scored afterwards without re-running or re-indexing.
+class BatchEvaluator {
+    private static final int K = 3;
+    private final ChatbotEngine engine;
+
+    BatchEvaluator(ChatbotEngine engine) {
+        this.engine = engine;
+    }
+
+    public void run(Path pairsFile, double[] thresholds, PrintStream out) throws IOException {
+        List<String[]> pairs = new ArrayList<>();
+        for (String line : Files.readAllLines(pairsFile, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\|", 2);
+            if (parts.length == 2) pairs.add(new String[] { parts[0].trim(), parts[1].trim() });
+        }
+        int n = pairs.size();
+        if (n == 0) {
+            out.println("No query|expected pairs in " + pairsFile);
+            return;
+        }
+
+        // warm up the JIT so the latency percentiles describe steady state
+        for (int i = 0; i < Math.min(n, 1000); i++) engine.topMatches(pairs.get(i)[0], K);
+
+        Rule[] firedRules = new Rule[n];
+        // one slot per query, set from the parallel loop; set() on distinct indices never resizes
+        List<List<ScoredFAQ>> results = new ArrayList<>(Collections.nCopies(n, Collections.<ScoredFAQ>emptyList()));
+        long[] nanos = new long[n];
+        long wallStart = System.nanoTime();
+        IntStream.range(0, n).parallel().forEach(i -> {
+            String q = pairs.get(i)[0];
+            long t0 = System.nanoTime();
+            firedRules[i] = engine.matchRule(q);
+            if (firedRules[i] == null) results.set(i, engine.topMatches(q, K));
+            nanos[i] = System.nanoTime() - t0;
+        });
+        long wall = System.nanoTime() - wallStart;
+
+        int top1 = 0, top3 = 0, ruled = 0;
+        int[] confidence = new int[11]; // best score in 0.1-wide buckets, last one is exactly 1.0
+        for (int i = 0; i < n; i++) {
+            if (firedRules[i] != null) {
+                ruled++;
+                continue;
+            }
+            int rank = rankOf(results.get(i), pairs.get(i)[1]);
+            if (rank == 0) top1++;
+            if (rank >= 0 && rank < K) top3++;
+            double best = results.get(i).isEmpty() ? 0.0 : results.get(i).get(0).score;
+            confidence[Math.min(10, (int) (best * 10 + 1e-9))]++;
+        }
+
+        // accuracy and the sweep describe the FAQ matcher, so both count only the queries no rule answered
+        int matched = n - ruled;
+        out.printf("Queries: %d (%d answered by rules, %d matched against FAQs), %d threads, %.1f queries/s%n",
+                n, ruled, matched, ForkJoinPool.getCommonPoolParallelism(), n / (wall / 1e9));
+        if (matched > 0) {
+            out.printf("Top-1 accuracy: %.2f%%   Top-%d accuracy: %.2f%%   (of %d matched queries)%n",
+                    100.0 * top1 / matched, K, 100.0 * top3 / matched, matched);
+        }
+        Arrays.sort(nanos);
+        out.printf("Latency: p50 %.1f us   p99 %.1f us   p99.9 %.1f us   max %.1f us%n",
+                percentile(nanos, 0.50) / 1e3, percentile(nanos, 0.99) / 1e3, percentile(nanos, 0.999) / 1e3, nanos[n - 1] / 1e3);
+        out.println("Best-score distribution:");
+        for (int b = 0; b < confidence.length; b++) {
+            String range = b == 10 ? "      1.0" : String.format("%.1f-%.1f", b / 10.0, (b + 1) / 10.0);
+            out.printf("  %s %6d%n", range, confidence[b]);
+        }
+
+        out.println("Threshold sweep (answered = best score >= threshold):");
+        out.println("  threshold  answered  correct  wrong  fallback  fallback-with-hit");
+        for (double t : thresholds) {
+            int answered = 0, correct = 0, fallbackHit = 0;
+            for (int i = 0; i < n; i++) {
+                if (firedRules[i] != null) continue;
+                List<ScoredFAQ> r = results.get(i);
+                int rank = rankOf(r, pairs.get(i)[1]);
+                if (!r.isEmpty() && r.get(0).score >= t) {
+                    answered++;
+                    if (rank == 0) correct++;
+                } else if (rank >= 0) {
+                    fallbackHit++;
+                }
+            }
+            out.printf("  %9.2f  %8d  %7d  %5d  %8d  %17d%n", t, answered, correct, answered - correct, matched - answered, fallbackHit);
+        }
+    }
+
+    // position of the expected FAQ in the results, -1 if absent
+    private static int rankOf(List<ScoredFAQ> results, String expectedQuestion) {
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).faq.question().trim().equalsIgnoreCase(expectedQuestion)) return i;
+        }
+        return -1;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    // "0.1,0.18,0.3" or empty for a default sweep around the engine's threshold
+    static double[] parseThresholds(String arg, double current) {
+        if (arg == null || arg.trim().isEmpty()) {
+            double[] t = new double[11];
+            for (int i = 0; i < 10; i++) t[i] = (i + 1) * 0.05;
+            t[10] = current;
+            Arrays.sort(t);
+            return t;
+        }
+        String[] parts = arg.split(",");
+        double[] t = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) t[i] = Double.parseDouble(parts[i].trim());
+        return t;
+    }
+}
+
+/* -----------------------------
+   Benchmarks (synthetic corpora)
+   ----------------------------- */
+// java AIChatbotFull --bench [1000,10000,100000,1000000]
+// Synthetic FAQ corpora with a Zipf-distributed vocabulary, measured for tokenize, full index
+// build, incremental add and query (cached respond and uncached topMatches), timed by BenchHarness.
+// Results are written to bench-results.csv; if bench-baseline.csv exists the change against it
+// is printed, so a run before and after a change can be compared directly.
+class ChatbotBenchmark {
+    private static final String[] STOPWORDS = { "how", "do", "i", "the", "a", "to", "my", "is", "what", "can", "you", "for" };
+    private final Random random = new Random(42);
+    private final String[] vocabulary;
+    private final double[] zipfCdf;
+
+    ChatbotBenchmark(int vocabularySize) {
+        vocabulary = new String[vocabularySize];
+        String[] syllables = { "ka", "re", "po", "li", "sen", "tor", "mi", "da", "vu", "qen", "sha", "lo", "ing", "ed", "s" };
+        for (int i = 0; i < vocabularySize; i++) {
+            StringBuilder w = new StringBuilder();
+            for (int n = i; ; n /= syllables.length) {
+                w.append(syllables[n % syllables.length]);
+                if (n < syllables.length) break;
+            }
+            vocabulary[i] = w.toString();
+        }
+        // word rank r is drawn with probability ~ 1 / r^1.07, like natural-language term frequencies
+        zipfCdf = new double[vocabularySize];
+        double sum = 0.0;
+        for (int r = 0; r < vocabularySize; r++) zipfCdf[r] = sum += 1.0 / Math.pow(r + 1, 1.07);
+        for (int r = 0; r < vocabularySize; r++) zipfCdf[r] /= sum;
+    }
+
+    static void run(String sizesArg) throws IOException {
+        int[] sizes = { 1000, 10000, 100000 };
+        if (sizesArg != null) {
+            String[] parts = sizesArg.split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        ChatbotBenchmark bench = new ChatbotBenchmark(50000);
+        for (int n : sizes) bench.runCorpus(n);
+        BenchHarness.report(Paths.get("bench-results.csv"), Paths.get("bench-baseline.csv"));
+    }
+
+    String question() {
+        int words = 4 + random.nextInt(9);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(random.nextInt(4) == 0 ? STOPWORDS[random.nextInt(STOPWORDS.length)] : word());
+        }
+        return sb.append('?').toString();
+    }
+
+    private String word() {
+        int r = Arrays.binarySearch(zipfCdf, random.nextDouble());
+        return vocabulary[Math.min(vocabulary.length - 1, r < 0 ? -r - 1 : r)];
+    }
+
+    void runCorpus(int n) {
+        System.out.println("== corpus " + n + " FAQs");
+        List<FAQ> faqs = new ArrayList<>(n);
+        NLP nlp = new NLP();
+        for (int i = 0; i < n; i++) {
+            String q = question();
+            faqs.add(new FAQ(q, "Answer " + i, nlp.tokenize(q)));
+        }
+        String[] queries = new String[4096];
+        for (int i = 0; i < queries.length; i++) queries[i] = question();
+
+        int[] cursor = { 0 };
+        BenchHarness.measure("tokenize", n, 200000, bh -> bh.consume(nlp.tokenize(queries[cursor[0]++ & 4095])));
+        BenchHarness.measure("buildIndex", n, n >= 100000 ? 3 : 20, bh -> bh.consume(InvertedIndex.build(faqs, 0)));
+
+        ChatbotEngine engine = new ChatbotEngine();
+        engine.addFaqs(faqs);
+        engine.buildIndex();
+        System.out.printf("  index memory  %.1f MB (%s postings, off-heap)%n", engine.indexMemoryBytes() / 1e6,
+                PostingList.PRECISION.toString().toLowerCase());
+        BenchHarness.measure("addFaq", n, 200, bh -> engine.addFaq(question(), "extra"));
+        BenchHarness.measure("topMatches", n, 20000, bh -> bh.consume(engine.topMatches(queries[cursor[0]++ & 4095], 3)));
+        // a few hundred hot questions dominate real traffic, so most respond() calls hit the cache
+        BenchHarness.measure("respond", n, 20000,
+                bh -> bh.consume(engine.respond(queries[random.nextInt(10) < 8 ? random.nextInt(300) : random.nextInt(4096)])));
+
+        // approximate mode (-Dchatbot.lsh=bands,rows,maxCandidates to tune): latency and recall against the exact path
+        MinHashIndex.Params lsh = MinHashIndex.Params.fromSystemProperties();
+        engine.setApproximate(lsh != null ? lsh : MinHashIndex.Params.DEFAULT);
+        BenchHarness.measure("topMatchesLsh", n, 20000, bh -> bh.consume(engine.topMatches(queries[cursor[0]++ & 4095], 3)));
+        double[] recall = engine.approximateRecall(Arrays.asList(queries).subList(0, 1000), 3);
+        System.out.printf("  lsh (%s): recall@1 %.3f  recall@3 %.3f%n",
+                lsh != null ? lsh : MinHashIndex.Params.DEFAULT, recall[0], recall[1]);
+        engine.setApproximate(null);
+    }
 }
 
 /* -----------------------------
@@ -46,9 +430,26 @@ class ChatGuiWithMenu {
     private JTextPane chatPane;
     private JTextField inputField;
     private JButton sendBtn;
+    private JMenu fileMenu;
+    private JProgressBar progress;
     private ChatbotEngine engine;
     private SimpleDateFormat timeFmt = new SimpleDateFormat("HH:mm:ss");
 
+    // matching runs here so a large corpus never stalls the EDT; only the latest query is answered
+    private final ExecutorService responder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-respond");
+        t.setDaemon(true);
+        return t;
+    });
+    private Future<?> pendingReply;           // EDT only
+    private javax.swing.Timer pendingTyping;  // EDT only
+    private long querySeq;                    // EDT only
+
+    // shared styles, created once; older messages are dropped past MAX_MESSAGES
+    private static final int MAX_MESSAGES = 400;
+    private final ArrayDeque<Integer> messageLengths = new ArrayDeque<>();
+    private Style userLabel, userBody, botLabel, botBody;
+
     ChatGuiWithMenu(ChatbotEngine engine) {
         this.engine = engine;
         buildUi();
@@ -69,10 +470,21 @@ class ChatGuiWithMenu {
         inputField = new JTextField();
         sendBtn = new JButton("Send");
 
+        userLabel = newStyle("userLabel", Color.BLUE, true);
+        userBody = newStyle("userBody", Color.BLACK, false);
+        botLabel = newStyle("botLabel", Color.MAGENTA, true);
+        botBody = newStyle("botBody", Color.DARK_GRAY, false);
+
+        progress = new JProgressBar();
+        progress.setIndeterminate(true);
+        progress.setStringPainted(true);
+        progress.setVisible(false);
+
         JPanel bottom = new JPanel(new BorderLayout(8, 8));
         bottom.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
         bottom.add(inputField, BorderLayout.CENTER);
         bottom.add(sendBtn, BorderLayout.EAST);
+        bottom.add(progress, BorderLayout.SOUTH);
 
         frame.setLayout(new BorderLayout());
         frame.add(scrollPane, BorderLayout.CENTER);
@@ -80,7 +492,7 @@ class ChatGuiWithMenu {
 
         // Menu bar
         JMenuBar menuBar = new JMenuBar();
-        JMenu fileMenu = new JMenu("File");
+        fileMenu = new JMenu("File");
         JMenuItem loadItem = new JMenuItem("Load FAQs from faq.txt");
         JMenuItem saveItem = new JMenuItem("Save FAQs to faq.txt");
         JMenuItem addFaqItem = new JMenuItem("Add FAQ");
@@ -101,30 +513,31 @@ class ChatGuiWithMenu {
         sendBtn.addActionListener(e -> sendUserText());
         inputField.addActionListener(e -> sendUserText());
 
-        loadItem.addActionListener(e -> {
+        loadItem.addActionListener(e -> runInBackground("Loading faq.txt…", () -> {
             engine.loadFaqFile("faq.txt");
-            appendBotText("FAQs loaded from faq.txt (if file existed). Index rebuilt.");
-        });
+            return "FAQs loaded from faq.txt (if file existed). Index updated.";
+        }));
 
-        saveItem.addActionListener(e -> {
+        saveItem.addActionListener(e -> runInBackground("Saving faq.txt…", () -> {
             engine.saveFaqFile("faq.txt");
-            appendBotText("FAQs saved to faq.txt.");
-        });
+            return "FAQs saved to faq.txt.";
+        }));
 
         addFaqItem.addActionListener(e -> {
             showAddFaqDialog();
         });
 
-        rebuildIndex.addActionListener(e -> {
+        rebuildIndex.addActionListener(e -> runInBackground("Rebuilding index…", () -> {
             engine.buildIndex();
-            appendBotText("Index rebuilt with current FAQs.");
-        });
+            return "Index rebuilt with current FAQs.";
+        }));
 
         // shortcut: Ctrl+L clears chat
         inputField.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_L, InputEvent.CTRL_DOWN_MASK), "clear");
         inputField.getActionMap().put("clear", new AbstractAction() {
             public void actionPerformed(ActionEvent e) {
                 chatPane.setText("");
+                messageLengths.clear();
             }
         });
     }
@@ -139,15 +552,46 @@ class ChatGuiWithMenu {
         if (text.isEmpty()) return;
         appendUserText(text);
         inputField.setText("");
-        SwingUtilities.invokeLater(() -> {
+
+        // a newer question supersedes one that is still waiting or "typing"
+        if (pendingReply != null) pendingReply.cancel(false);
+        if (pendingTyping != null) pendingTyping.stop();
+        long seq = ++querySeq;
+        pendingReply = responder.submit(() -> {
             String reply = engine.respond(text);
-            // small delay to simulate typing
-            Timer t = new Timer(250, evt -> appendBotText(reply));
-            t.setRepeats(false);
-            t.start();
+            SwingUtilities.invokeLater(() -> {
+                if (seq != querySeq) return;
+                // small delay to simulate typing
+                pendingTyping = new javax.swing.Timer(250, evt -> appendBotText(reply));
+                pendingTyping.setRepeats(false);
+                pendingTyping.start();
+            });
         });
     }
 
+    // file and index work off the EDT; the menu is disabled and a progress bar shown until it finishes
+    private void runInBackground(String label, Callable<String> task) {
+        fileMenu.setEnabled(false);
+        progress.setString(label);
+        progress.setVisible(true);
+        new SwingWorker<String, Void>() {
+            protected String doInBackground() throws Exception {
+                return task.call();
+            }
+
+            protected void done() {
+                progress.setVisible(false);
+                fileMenu.setEnabled(true);
+                try {
+                    appendBotText(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    appendBotText("Error: " + cause.getMessage());
+                }
+            }
+        }.execute();
+    }
+
     private void showAddFaqDialog() {
         JPanel panel = new JPanel(new BorderLayout(6,6));
         JTextField qField = new JTextField();
@@ -167,9 +611,10 @@ class ChatGuiWithMenu {
             String q = qField.getText().trim();
             String a = aField.getText().trim();
             if (!q.isEmpty() && !a.isEmpty()) {
-                engine.addFaq(q, a);
-                engine.buildIndex();
-                appendBotText("Naya FAQ add ho gaya aur index rebuild hua.");
+                runInBackground("Adding FAQ…", () -> {
+                    engine.addFaq(q, a);
+                    return "Naya FAQ add ho gaya aur index update hua.";
+                });
             } else {
                 JOptionPane.showMessageDialog(frame, "Question aur Answer dono bharna zaroori hai.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
             }
@@ -177,22 +622,30 @@ class ChatGuiWithMenu {
     }
 
     private void appendUserText(String text) {
-        appendStyledText("You [" + timeFmt.format(new Date()) + "]: ", Color.BLUE, true);
-        appendStyledText(text + "\n\n", Color.BLACK, false);
+        appendMessage("You [" + timeFmt.format(new Date()) + "]: ", userLabel, text + "\n\n", userBody);
     }
 
     private void appendBotText(String text) {
-        appendStyledText("Bot [" + timeFmt.format(new Date()) + "]: ", Color.MAGENTA, true);
-        appendStyledText(text + "\n\n", Color.DARK_GRAY, false);
+        appendMessage("Bot [" + timeFmt.format(new Date()) + "]: ", botLabel, text + "\n\n", botBody);
     }
 
-    private void appendStyledText(String text, Color color, boolean bold) {
-        StyledDocument doc = chatPane.getStyledDocument();
-        Style style = chatPane.addStyle("Style", null);
+    private Style newStyle(String name, Color color, boolean bold) {
+        Style style = chatPane.addStyle(name, null);
         StyleConstants.setForeground(style, color);
         StyleConstants.setBold(style, bold);
+        return style;
+    }
+
+    private void appendMessage(String label, Style labelStyle, String body, Style bodyStyle) {
+        StyledDocument doc = chatPane.getStyledDocument();
         try {
-            doc.insertString(doc.getLength(), text, style);
+            doc.insertString(doc.getLength(), label, labelStyle);
+            doc.insertString(doc.getLength(), body, bodyStyle);
+            messageLengths.addLast(label.length() + body.length());
+            // drop the oldest messages so long sessions keep a bounded document
+            int drop = 0;
+            while (messageLengths.size() > MAX_MESSAGES) drop += messageLengths.removeFirst();
+            if (drop > 0) doc.remove(0, drop);
             chatPane.setCaretPosition(doc.getLength());
         } catch (BadLocationException e) {
             e.printStackTrace();
@@ -204,31 +657,125 @@ class ChatGuiWithMenu {
    Chatbot Engine (NLP + TF-IDF matching)
    ----------------------------- */
 class ChatbotEngine {
-    private List<FAQ> faqs = new ArrayList<>();
-    private Set<String> vocabulary = new LinkedHashSet<>();
-    private Map<String, Double> idf = new HashMap<>();
-    private Map<FAQ, double[]> tfidfVectors = new HashMap<>();
-    private NLP nlp = new NLP();
+    private final List<FAQ> faqs = new ArrayList<>(); // guarded by this; only writers touch it
+    // immutable snapshot; readers take the current one without locking, writers publish a new one
+    private volatile InvertedIndex index = InvertedIndex.build(Collections.<FAQ>emptyList(), 0);
+    private volatile RuleEngine rules = RuleEngine.defaults();
+    private final ResponseCache cache = new ResponseCache(1024);
+    private final NLP nlp = new NLP();
     private final double MATCH_THRESHOLD = 0.18; // tuneable
+    private static final int SUGGESTIONS = 3;
+    private static final String FALLBACK_PREFIX = "Mujhe exact jawab nahi mila. Shayad aap inme se puchna chahein:";
+    private final ChatbotMetrics metrics = new ChatbotMetrics(this);
+    private FaqJournal journal; // guarded by this; null until openJournal
+    private Path indexFile, indexSource; // guarded by this; the binary index compaction keeps in step with its snapshot
+    private final Object compactLock = new Object();
+    // optional approximate retrieval; the LSH index is only used while its snapshot is the current one
+    private final Object approximateLock = new Object();
+    private volatile MinHashIndex.Params lshParams = MinHashIndex.Params.fromSystemProperties();
+    private volatile MinHashIndex approximate;
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "faq-background");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ChatbotEngine() {
+        // idf drift from incremental adds/edits/removals is corrected in the background
+        background.scheduleWithFixedDelay(this::reweightIfDrifted, 5, 5, TimeUnit.SECONDS);
+        background.scheduleWithFixedDelay(this::refreshApproximate, 5, 5, TimeUnit.SECONDS);
+    }
+
+    public ChatbotMetrics metrics() {
+        return metrics;
+    }
+
+    // publish metrics over JMX and log a summary every intervalSeconds
+    public void startMetricsReporting(int intervalSeconds) {
+        metrics.registerMBean();
+        background.scheduleAtFixedRate(() -> metrics.dump(System.out), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
-    ChatbotEngine() {}
+    // built-in FAQs (training)
+    private static final String[][] DEFAULT_FAQS = {
+        { "What is your name", "Mera naam Ankit's AI Assistant hai. Aap kaise ho?" },
+        { "How are you", "Main theek hoon — aap kaise ho?" },
+        { "How to reset password", "Password reset karne ke liye 'Forgot Password' par click karein aur instructions follow karein." },
+        { "What services do you offer", "Main coding help, AI tools explanations, and tutorials provide karta hoon." },
+        { "How to contact support", "Aap support@example.com par email bhej sakte hain ya phone par call karein: 9876543210." },
+        { "What is java", "Java ek object-oriented programming language hai jo cross-platform applications banane ke liye use hoti hai." },
+        { "How to compile java", "Terminal mein: javac FileName.java aur run karne ke liye: java FileName" },
+        { "What is machine learning", "Machine learning ek technique hai jisme models data se patterns seekhte hain aur predictions karte hain." },
+        { "How to create account", "Create account ke liye signup page par jaakar required fields fill karein aur submit karein." },
+        { "What is tf idf", "TF–IDF ek text representation technique hai jo word importance ko measure karti hai based on frequency and document rarity." },
+    };
 
     // load built-in FAQs (training)
     public void loadDefaultFaqs() {
-        addFaq("What is your name", "Mera naam Ankit's AI Assistant hai. Aap kaise ho?");
-        addFaq("How are you", "Main theek hoon — aap kaise ho?");
-        addFaq("How to reset password", "Password reset karne ke liye 'Forgot Password' par click karein aur instructions follow karein.");
-        addFaq("What services do you offer", "Main coding help, AI tools explanations, and tutorials provide karta hoon.");
-        addFaq("How to contact support", "Aap support@example.com par email bhej sakte hain ya phone par call karein: 9876543210.");
-        addFaq("What is java", "Java ek object-oriented programming language hai jo cross-platform applications banane ke liye use hoti hai.");
-        addFaq("How to compile java", "Terminal mein: javac FileName.java aur run karne ke liye: java FileName");
-        addFaq("What is machine learning", "Machine learning ek technique hai jisme models data se patterns seekhte hain aur predictions karte hain.");
-        addFaq("How to create account", "Create account ke liye signup page par jaakar required fields fill karein aur submit karein.");
-        addFaq("What is tf idf", "TF–IDF ek text representation technique hai jo word importance ko measure karti hai based on frequency and document rarity.");
-
+        for (String[] qa : DEFAULT_FAQS) addFaq(qa[0], qa[1]);
         buildIndex();
     }
 
+    // fingerprint of the built-in FAQs, so an index file from an older build is not reused
+    static long defaultFaqsChecksum() {
+        CRC32 crc = new CRC32();
+        for (String[] qa : DEFAULT_FAQS) {
+            crc.update((qa[0] + "|" + qa[1] + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return crc.getValue();
+    }
+
+    // start from the binary index written by a previous run if it still matches the FAQ file
+    public synchronized boolean openIndexFile(String faqFile, String indexFile) {
+        try {
+            InvertedIndex snap = IndexFile.open(Paths.get(indexFile), Paths.get(faqFile));
+            this.indexFile = Paths.get(indexFile);
+            indexSource = Paths.get(faqFile);
+            if (snap == null) return false;
+            faqs.clear();
+            for (int d = 0; d < snap.docCount(); d++) faqs.add(snap.doc(d));
+            index = snap;
+            System.out.println("Opened index " + indexFile + " (" + faqs.size() + " FAQs)");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error opening index: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // persist the current index for the next start, re-weighted first only if it was updated since its last
+    // full build; call only while FAQs match what was loaded from faqFile
+    public synchronized void writeIndexFile(String faqFile, String indexFile) {
+        if (!index.isFullyWeighted()) {
+            long t0 = System.nanoTime();
+            index = index.reweighted();
+            metrics.record(ChatbotMetrics.Stage.REWEIGHT, System.nanoTime() - t0);
+        }
+        this.indexFile = Paths.get(indexFile);
+        indexSource = Paths.get(faqFile);
+        try {
+            IndexFile.write(this.indexFile, indexSource, index);
+        } catch (IOException e) {
+            System.err.println("Error writing index: " + e.getMessage());
+        }
+    }
+
+    // load rules file if exists: rules replace built-in rules of the same name, others are added
+    public void loadRulesFileIfExists(String filename) {
+        Path path = Paths.get(filename);
+        if (!Files.exists(path)) return;
+        try {
+            Map<String, Rule> byName = new LinkedHashMap<>();
+            for (Rule r : RuleEngine.defaultRules()) byName.put(r.name, r);
+            List<Rule> loaded = RuleEngine.parseRules(Files.readAllLines(path));
+            for (Rule r : loaded) byName.put(r.name, r);
+            rules = new RuleEngine(new ArrayList<>(byName.values()));
+            System.out.println("Loaded " + loaded.size() + " rules from " + filename);
+        } catch (IOException e) {
+            System.err.println("Error loading rules: " + e.getMessage());
+        }
+    }
+
     // load FAQ file if exists (safe wrapper)
     public void loadFaqFileIfExists(String filename) {
         Path p = Paths.get(filename);
@@ -244,34 +791,34 @@ class ChatbotEngine {
             System.err.println("FAQ file not found: " + filename);
             return;
         }
-        try (BufferedReader br = Files.newBufferedReader(path)) {
-            String line;
-            int count = 0;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                String[] parts = line.split("\\|", 2);
-                if (parts.length == 2) {
-                    addFaq(parts[0].trim(), parts[1].trim());
-                    count++;
-                }
-            }
-            System.out.println("Loaded " + count + " FAQs from " + filename);
-            buildIndex();
-        } catch (IOException e) {
+        try {
+            // parsed in parallel chunks; questions already loaded (after normalization) are skipped
+            int[] counts = FaqIngest.ingest(this, path, nlp);
+            System.out.println("Loaded " + counts[0] + " FAQs from " + filename
+                    + (counts[1] > 0 ? " (" + counts[1] + " duplicates skipped)" : ""));
+        } catch (IOException | UncheckedIOException e) {
             System.err.println("Error loading FAQs: " + e.getMessage());
         }
     }
 
-    // save current FAQs to file (overwrites)
+    public synchronized List<String> questions() {
+        List<String> out = new ArrayList<>(faqs.size());
+        for (FAQ f : faqs) out.add(f.question());
+        return out;
+    }
+
+    // save current FAQs to file: compacts the journal when filename is its snapshot, otherwise an
+    // atomic rewrite (temp file + rename)
     public void saveFaqFile(String filename) {
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(filename))) {
-            for (FAQ f : faqs) {
-                // write in safe format, replace newlines in answer
-                String q = f.question.replaceAll("\\r?\\n", " ");
-                String a = f.answer.replaceAll("\\r?\\n", " ");
-                bw.write(q + " | " + a);
-                bw.newLine();
+        try {
+            FaqJournal j;
+            synchronized (this) {
+                j = journal;
+            }
+            if (j != null && j.snapshotPath().equals(Paths.get(filename))) {
+                compactJournal();
+            } else {
+                FaqJournal.writeSnapshot(Paths.get(filename), rows(), -1);
             }
             System.out.println("FAQs saved to " + filename);
         } catch (IOException e) {
@@ -279,205 +826,2879 @@ class ChatbotEngine {
         }
     }
 
-    // add an FAQ pair
-    public void addFaq(String question, String answer) {
-        FAQ f = new FAQ(question, answer);
-        faqs.add(f);
+    private synchronized List<String[]> rows() {
+        List<String[]> rows = new ArrayList<>(faqs.size());
+        for (FAQ f : faqs) rows.add(new String[] { f.question(), f.answer() });
+        return rows;
     }
 
-    // rebuild vocabulary, idf and TF-IDF vectors
-    public void buildIndex() {
-        vocabulary.clear();
-        List<List<String>> tokenDocs = new ArrayList<>();
-        for (FAQ f : faqs) {
-            List<String> tokens = nlp.tokenize(f.question);
-            f.tokens = tokens;
-            tokenDocs.add(tokens);
-            vocabulary.addAll(tokens);
+    // replay the journal on top of the FAQs loaded from snapshotFile, then log every change to it
+    public void openJournal(String snapshotFile, String journalBase) {
+        List<FAQ> adds = new ArrayList<>();
+        try {
+            FaqJournal j = FaqJournal.open(Paths.get(snapshotFile), Paths.get(journalBase), (type, f) -> {
+                if (type == FaqJournal.ADD) {
+                    adds.add(new FAQ(f[0], f[1], nlp.tokenize(f[0]))); // runs of adds become one index update
+                    return;
+                }
+                addFaqs(adds);
+                adds.clear();
+                // records name the FAQ by position, which replay reproduces; journals without one are found by question
+                boolean positional = f.length == (type == FaqJournal.EDIT ? 4 : 2);
+                int pos = positional ? positionOf(Integer.parseInt(f[0]), f[1]) : positionOf(-1, f[0]);
+                if (pos < 0) return;
+                int at = positional ? 2 : 1;
+                if (type == FaqJournal.EDIT) editFaq(pos, f[at], f[at + 1]);
+                else if (type == FaqJournal.REMOVE) removeFaq(pos);
+            });
+            addFaqs(adds);
+            synchronized (this) {
+                journal = j;
+            }
+            background.scheduleWithFixedDelay(this::compactIfNeeded, 30, 30, TimeUnit.SECONDS);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error opening FAQ journal: " + e.getMessage());
         }
+    }
 
-        // compute idf (smoothed)
-        idf.clear();
-        int N = tokenDocs.size();
-        for (String term : vocabulary) {
-            int docCount = 0;
-            for (List<String> doc : tokenDocs) {
-                if (doc.contains(term)) docCount++;
+    // snapshot all FAQs and drop the journal segments it covers; the binary index is rewritten to match
+    // the new snapshot, so the next start can still open it
+    public void compactJournal() throws IOException {
+        synchronized (compactLock) {
+            FaqJournal j;
+            List<String[]> rows;
+            List<FAQ> live;
+            Path idx;
+            long segment;
+            synchronized (this) {
+                j = journal;
+                if (j == null) return;
+                rows = rows();
+                live = new ArrayList<>(faqs);
+                idx = j.snapshotPath().equals(indexSource) ? indexFile : null;
+                segment = j.rotate(); // changes from here on land in the new segment
             }
-            double value = Math.log((N + 1.0) / (docCount + 1.0)) + 1.0; // smoothed
-            idf.put(term, value);
+            j.writeSnapshot(rows, segment);
+            if (idx == null) return;
+            // built from copies so the live FAQs keep their doc ids in the published index
+            List<FAQ> copies = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) copies.add(new FAQ(rows.get(i)[0], rows.get(i)[1], live.get(i).tokens()));
+            IndexFile.write(idx, j.snapshotPath(), InvertedIndex.build(copies, 0));
         }
+    }
 
-        // compute TF-IDF vectors
-        tfidfVectors.clear();
-        List<String> vocabList = new ArrayList<>(vocabulary);
-        for (FAQ f : faqs) {
-            double[] vec = new double[vocabList.size()];
-            Map<String, Integer> tf = new HashMap<>();
-            for (String t : f.tokens) tf.put(t, tf.getOrDefault(t, 0) + 1);
-            for (int i = 0; i < vocabList.size(); i++) {
-                String term = vocabList.get(i);
-                double tfVal = tf.getOrDefault(term, 0);
-                vec[i] = tfVal * idf.getOrDefault(term, 0.0);
-            }
-            normalize(vec);
-            tfidfVectors.put(f, vec);
-            f.vector = vec;
+    private void compactIfNeeded() {
+        FaqJournal j;
+        synchronized (this) {
+            j = journal;
+        }
+        if (j == null || !j.needsCompaction()) return;
+        try {
+            compactJournal();
+        } catch (IOException e) {
+            System.err.println("Error compacting FAQ journal: " + e.getMessage());
         }
     }
 
-    // respond to input text
-    public String respond(String text) {
-        // rule-based
-        String rule = ruleBasedResponse(text);
-        if (rule != null) return rule;
-
-        // tokenize
-        List<String> tokens = nlp.tokenize(text);
-        if (tokens.isEmpty()) return "Mujhe samajh nahi aaya—kripya thoda aur detail dein.";
-
-        // ensure index
-        if (vocabulary.isEmpty()) buildIndex();
-        List<String> vocabList = new ArrayList<>(vocabulary);
-        double[] qvec = new double[vocabList.size()];
-        Map<String, Integer> tf = new HashMap<>();
-        for (String t : tokens) tf.put(t, tf.getOrDefault(t, 0) + 1);
-        for (int i = 0; i < vocabList.size(); i++) {
-            String term = vocabList.get(i);
-            double tfVal = tf.getOrDefault(term, 0);
-            qvec[i] = tfVal * idf.getOrDefault(term, 0.0);
-        }
-        normalize(qvec);
-
-        // match
-        double bestScore = 0.0;
-        FAQ best = null;
-        for (Map.Entry<FAQ, double[]> e : tfidfVectors.entrySet()) {
-            double sim = cosineSimilarity(qvec, e.getValue());
-            if (sim > bestScore) {
-                bestScore = sim;
-                best = e.getKey();
-            }
-        }
-
-        if (bestScore >= MATCH_THRESHOLD && best != null) {
-            return best.answer + " (confidence: " + String.format("%.2f", bestScore) + ")";
-        } else {
-            // suggestions
-            List<ScoredFAQ> sug = topKSimilar(qvec, 3);
-            StringBuilder sb = new StringBuilder();
-            sb.append("Mujhe exact jawab nahi mila. Shayad aap inme se puchna chahein:\n");
-            for (ScoredFAQ s : sug) {
-                sb.append(" • ").append(s.faq.question).append(" (sim: ").append(String.format("%.2f", s.score)).append(")\n");
-            }
-            sb.append("Ya phir apna sawaal thoda aur detail mein puchiye.");
-            return sb.toString();
+    // position when the FAQ there still has this question, otherwise the first FAQ that does (-1 if none)
+    private synchronized int positionOf(int position, String question) {
+        if (position >= 0 && position < faqs.size() && faqs.get(position).question().equals(question)) return position;
+        for (int i = 0; i < faqs.size(); i++) {
+            if (faqs.get(i).question().equals(question)) return i;
         }
+        return -1;
     }
 
-    private List<ScoredFAQ> topKSimilar(double[] qvec, int k) {
-        PriorityQueue<ScoredFAQ> pq = new PriorityQueue<>(Comparator.comparingDouble(a -> -a.score));
-        for (Map.Entry<FAQ, double[]> e : tfidfVectors.entrySet()) {
-            double sim = cosineSimilarity(qvec, e.getValue());
-            pq.add(new ScoredFAQ(e.getKey(), sim));
+    // write-ahead: the change is logged before it is applied; 0 when no journal is open
+    private long log(byte type, String... fields) {
+        if (journal == null) return 0;
+        try {
+            return journal.append(type, fields);
+        } catch (IOException e) {
+            System.err.println("Error writing FAQ journal: " + e.getMessage());
+            return 0;
         }
-        List<ScoredFAQ> out = new ArrayList<>();
-        for (int i = 0; i < k && !pq.isEmpty(); i++) out.add(pq.poll());
-        return out;
     }
 
-    // rule-based responses
-    private String ruleBasedResponse(String text) {
-        String t = text.toLowerCase();
-        if (t.matches(".*\\b(hi|hello|hey|namaste|namaskar)\\b.*")) {
-            return "Hello! Main aapki kaise madad karun?";
+    // called without the engine lock, so concurrent writers share one fsync
+    private void awaitDurable(long seq) {
+        FaqJournal j;
+        synchronized (this) {
+            j = journal;
         }
-        if (t.matches(".*\\b(thank|thanks|shukriya|dhanyavaad)\\b.*")) {
-            return "Aapka swagat hai! Aur kuch chahiye to bataiye.";
+        if (seq == 0 || j == null) return;
+        try {
+            j.awaitDurable(seq);
+        } catch (IOException e) {
+            System.err.println("Error syncing FAQ journal: " + e.getMessage());
         }
-        if (t.matches(".*\\b(bye|goodbye|see you|phir milenge|bye-bye)\\b.*")) {
-            return "Alvida! Aapka din shubh ho.";
+    }
+
+    // add an FAQ pair (indexed immediately)
+    public void addFaq(String question, String answer) {
+        addFaqs(Collections.singletonList(new FAQ(question, answer, nlp.tokenize(question))));
+    }
+
+    // add a batch of FAQs with a single snapshot publish
+    public void addFaqs(List<FAQ> batch) {
+        if (batch.isEmpty()) return;
+        long seq = 0;
+        synchronized (this) {
+            long t0 = System.nanoTime();
+            for (FAQ f : batch) seq = log(FaqJournal.ADD, f.question(), f.answer());
+            boolean rebuild = batch.size() >= faqs.size(); // a batch at least the corpus size is cheaper to index from scratch
+            faqs.addAll(batch);
+            index = rebuild ? InvertedIndex.build(faqs, index.generation() + 1) : index.update(Collections.<FAQ>emptyList(), batch);
+            metrics.record(rebuild ? ChatbotMetrics.Stage.BUILD : ChatbotMetrics.Stage.UPDATE, System.nanoTime() - t0);
         }
-        return null;
+        awaitDurable(seq);
     }
 
-    // cosine similarity
-    private double cosineSimilarity(double[] a, double[] b) {
-        if (a == null || b == null || a.length != b.length) return 0.0;
-        double dot = 0.0, na = 0.0, nb = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            dot += a[i] * b[i];
-            na += a[i] * a[i];
-            nb += b[i] * b[i];
+    // replace question/answer of the FAQ at position
+    public void editFaq(int position, String question, String answer) {
+        long seq;
+        synchronized (this) {
+            long t0 = System.nanoTime();
+            FAQ old = faqs.get(position);
+            seq = log(FaqJournal.EDIT, Integer.toString(position), old.question(), question, answer);
+            FAQ f = new FAQ(question, answer, nlp.tokenize(question));
+            faqs.set(position, f);
+            index = index.update(Collections.singletonList(old), Collections.singletonList(f));
+            metrics.record(ChatbotMetrics.Stage.UPDATE, System.nanoTime() - t0);
         }
-        if (na == 0.0 || nb == 0.0) return 0.0;
-        return dot / (Math.sqrt(na) * Math.sqrt(nb));
+        awaitDurable(seq);
     }
 
-    // normalize vector
-    private void normalize(double[] v) {
-        double sum = 0.0;
-        for (double d : v) sum += d * d;
-        if (sum == 0.0) return;
-        double norm = Math.sqrt(sum);
-        for (int i = 0; i < v.length; i++) v[i] /= norm;
+    // remove the FAQ at position
+    public void removeFaq(int position) {
+        long seq;
+        synchronized (this) {
+            long t0 = System.nanoTime();
+            seq = log(FaqJournal.REMOVE, Integer.toString(position), faqs.get(position).question());
+            FAQ f = faqs.remove(position);
+            index = index.update(Collections.singletonList(f), Collections.<FAQ>emptyList());
+            metrics.record(ChatbotMetrics.Stage.UPDATE, System.nanoTime() - t0);
+        }
+        awaitDurable(seq);
     }
-}
 
-/* -----------------------------
-   Supporting classes
-   ----------------------------- */
-class FAQ {
-    String question;
-    String answer;
-    List<String> tokens = new ArrayList<>();
-    double[] vector;
+    // hit/miss/eviction counters for sizing the response cache
+    public ResponseCache cacheStats() {
+        return cache;
+    }
 
-    FAQ(String q, String a) {
-        this.question = q;
-        this.answer = a;
+    public synchronized int faqCount() {
+        return faqs.size();
     }
-}
 
-class ScoredFAQ {
-    FAQ faq;
-    double score;
-    ScoredFAQ(FAQ f, double s) { this.faq = f; this.score = s; }
-}
+    public int termCount() {
+        return index.termCount();
+    }
 
-/* -----------------------------
-   Minimal NLP utilities
-   ----------------------------- */
-class NLP {
-    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList(
-            "a","an","the","is","are","was","were","in","on","at","to","for","of","and","or","but",
-            "what","how","why","do","does","did","i","you","we","they","he","she","it","my","your",
-            "please","me","can","could","would","will","shall","this","that","these","those","from",
-            "by","with","about","as","be","have","has","had","so","if","then","its","isnt","dont"
-    ));
+    public long indexGeneration() {
+        return index.generation();
+    }
 
-    // lowercase, remove punctuation, tokenize, remove stopwords, naive stem
-    public List<String> tokenize(String text) {
-        if (text == null) return Collections.emptyList();
-        String t = text.toLowerCase();
-        t = t.replaceAll("[^a-z0-9\\s]", " ");
-        String[] parts = t.split("\\s+");
-        List<String> out = new ArrayList<>();
-        for (String p : parts) {
-            p = p.trim();
-            if (p.isEmpty()) continue;
-            if (STOPWORDS.contains(p)) continue;
-            p = naiveStem(p);
-            if (p.length() > 0) out.add(p);
+    public long indexMemoryBytes() {
+        return index.memoryBytes();
+    }
+
+    // re-weight with the current idf once enough FAQs changed since the last build
+    private synchronized void reweightIfDrifted() {
+        if (!index.needsReweight()) return;
+        long t0 = System.nanoTime();
+        index = index.reweighted();
+        metrics.record(ChatbotMetrics.Stage.REWEIGHT, System.nanoTime() - t0);
+    }
+
+    // rebuild the inverted index (vocabulary, idf, postings) from scratch and publish it
+    public synchronized void buildIndex() {
+        long t0 = System.nanoTime();
+        index = InvertedIndex.build(faqs, index.generation() + 1);
+        metrics.record(ChatbotMetrics.Stage.BUILD, System.nanoTime() - t0);
+    }
+
+    // respond to input text; safe to call from many threads, never waits for writers
+    public String respond(String text) {
+        long start = System.nanoTime();
+        String reply = respondTimed(text, start);
+        metrics.record(ChatbotMetrics.Stage.RESPOND, System.nanoTime() - start);
+        return reply;
+    }
+
+    private String respondTimed(String text, long start) {
+        // rule-based
+        Rule rule = matchRule(text);
+        long t = System.nanoTime();
+        metrics.record(ChatbotMetrics.Stage.RULES, t - start);
+        if (rule != null) {
+            metrics.ruleHit(rule);
+            return rule.response;
         }
-        return out;
+
+        // one snapshot for the whole query: term ids, generation and postings stay consistent
+        InvertedIndex snap = index;
+
+        // tokenize straight into term ids
+        List<String> unknown = new ArrayList<>(2);
+        int[] termIds = nlp.termIds(text, snap.dictionary(), unknown);
+        long t2 = System.nanoTime();
+        metrics.record(ChatbotMetrics.Stage.TOKENIZE, t2 - t);
+        if (termIds.length == 0) {
+            metrics.emptyQuery();
+            return "Mujhe samajh nahi aaya—kripya thoda aur detail dein.";
+        }
+
+        // the reply depends on the known-term multiset plus the unknown tokens typo correction may map
+        QueryKey key = new QueryKey(termIds, unknown);
+        long generation = snap.generation();
+        String cached = cache.get(key, generation);
+        metrics.record(ChatbotMetrics.Stage.CACHE, System.nanoTime() - t2);
+        String reply = cached;
+        if (reply == null) {
+            reply = match(snap, correctTypos(snap, termIds, unknown));
+            cache.put(key, generation, reply);
+        }
+        // counted per reply, cached or not
+        if (reply.startsWith(FALLBACK_PREFIX)) metrics.fallback();
+        else metrics.match();
+        return reply;
     }
 
-    // very naive stemmer
-    private String naiveStem(String w) {
-        if (w.endsWith("ing") && w.length() > 4) return w.substring(0, w.length() - 3);
-        if (w.endsWith("ed") && w.length() > 3) return w.substring(0, w.length() - 2);
-        if (w.endsWith("s") && w.length() > 3) return w.substring(0, w.length() - 1);
-        return w;
+    // top-k FAQ matches for text, bypassing rules and the reply cache (evaluation, tooling)
+    public List<ScoredFAQ> topMatches(String text, int k) {
+        InvertedIndex snap = index;
+        List<String> unknown = new ArrayList<>(2);
+        int[] termIds = nlp.termIds(text, snap.dictionary(), unknown);
+        if (termIds.length == 0) return Collections.emptyList();
+        return retrieve(snap, snap.vectorize(correctTypos(snap, termIds, unknown)), k);
+    }
+
+    // unknown tokens (in query order) replaced by their closest vocabulary term, if one is close enough
+    private int[] correctTypos(InvertedIndex snap, int[] termIds, List<String> unknown) {
+        if (unknown.isEmpty()) return termIds;
+        long t0 = System.nanoTime();
+        int[] corrected = termIds.clone();
+        int u = 0;
+        for (int i = 0; i < corrected.length; i++) {
+            if (corrected[i] < 0) corrected[i] = snap.closestTerm(unknown.get(u++));
+        }
+        metrics.record(ChatbotMetrics.Stage.TYPO, System.nanoTime() - t0);
+        return corrected;
+    }
+
+    // switch to MinHash LSH candidates + exact re-ranking (null: exact WAND path); builds the LSH index now
+    public void setApproximate(MinHashIndex.Params params) {
+        synchronized (approximateLock) {
+            lshParams = params;
+            approximate = null;
+        }
+        refreshApproximate();
+    }
+
+    // rebuild the LSH index once the index snapshot it was built for has been replaced
+    private void refreshApproximate() {
+        synchronized (approximateLock) {
+            MinHashIndex.Params p = lshParams;
+            InvertedIndex snap = index;
+            MinHashIndex a = approximate;
+            if (p == null || a != null && a.snapshot() == snap && a.params() == p) return;
+            approximate = MinHashIndex.build(snap, p);
+        }
+    }
+
+    // LSH candidates when the approximate index is current (exact search if it finds none), else exact
+    private List<ScoredFAQ> retrieve(InvertedIndex snap, SparseVector qvec, int k) {
+        MinHashIndex a = approximate;
+        if (a != null && a.snapshot() == snap) {
+            List<ScoredFAQ> top = a.topK(qvec, k);
+            if (!top.isEmpty()) return top;
+        }
+        return snap.topK(qvec, k);
+    }
+
+    // share of the exact top-1 and top-k FAQs that the approximate index also returns for these queries
+    public double[] approximateRecall(List<String> queries, int k) {
+        refreshApproximate();
+        MinHashIndex a = approximate;
+        if (a == null) throw new IllegalStateException("approximate mode is off");
+        InvertedIndex snap = a.snapshot();
+        int top1 = 0, top1Hits = 0, topK = 0, topKHits = 0;
+        for (String q : queries) {
+            SparseVector qvec = snap.vectorize(nlp.termIds(q, snap.dictionary()));
+            List<ScoredFAQ> exact = snap.topK(qvec, k);
+            if (exact.isEmpty()) continue;
+            List<ScoredFAQ> approx = a.topK(qvec, k);
+            Set<FAQ> found = new HashSet<>();
+            for (ScoredFAQ s : approx) found.add(s.faq);
+            top1++;
+            if (!approx.isEmpty() && approx.get(0).faq == exact.get(0).faq) top1Hits++;
+            for (ScoredFAQ s : exact) {
+                topK++;
+                if (found.contains(s.faq)) topKHits++;
+            }
+        }
+        return new double[] { top1 == 0 ? 1.0 : (double) top1Hits / top1, topK == 0 ? 1.0 : (double) topKHits / topK };
+    }
+
+    public double matchThreshold() {
+        return MATCH_THRESHOLD;
+    }
+
+    // TF-IDF match (or suggestions) for a tokenized query
+    private String match(InvertedIndex snap, int[] termIds) {
+        long t0 = System.nanoTime();
+        SparseVector qvec = snap.vectorize(termIds);
+        long t1 = System.nanoTime();
+        metrics.record(ChatbotMetrics.Stage.VECTORIZE, t1 - t0);
+
+        // one pruned pass yields both the best match and the suggestions
+        List<ScoredFAQ> top = retrieve(snap, qvec, SUGGESTIONS);
+        ScoredFAQ best = top.isEmpty() ? null : top.get(0);
+        long t2 = System.nanoTime();
+        metrics.record(ChatbotMetrics.Stage.SCORE, t2 - t1);
+        try {
+            return format(snap, top, best);
+        } finally {
+            metrics.record(ChatbotMetrics.Stage.FORMAT, System.nanoTime() - t2);
+        }
+    }
+
+    // answer for a confident match, otherwise the suggestion list
+    private String format(InvertedIndex snap, List<ScoredFAQ> top, ScoredFAQ best) {
+        if (best != null && best.score >= MATCH_THRESHOLD) {
+            return best.faq.answer() + " (confidence: " + String.format("%.2f", best.score) + ")";
+        } else {
+            // suggestions
+            List<ScoredFAQ> sug = padSuggestions(snap, top, SUGGESTIONS);
+            StringBuilder sb = new StringBuilder();
+            sb.append(FALLBACK_PREFIX).append('\n');
+            for (ScoredFAQ s : sug) {
+                sb.append(" • ").append(s.faq.question()).append(" (sim: ").append(String.format("%.2f", s.score)).append(")\n");
+            }
+            sb.append("Ya phir apna sawaal thoda aur detail mein puchiye.");
+            return sb.toString();
+        }
+    }
+
+    // FAQs without a shared term score 0; pad with them so k suggestions are still shown
+    private List<ScoredFAQ> padSuggestions(InvertedIndex snap, List<ScoredFAQ> top, int k) {
+        if (top.size() >= k) return top;
+        List<ScoredFAQ> out = new ArrayList<>(top);
+        Set<FAQ> seen = new HashSet<>();
+        for (ScoredFAQ s : out) seen.add(s.faq);
+        for (int d = 0; d < snap.docCount() && out.size() < k; d++) {
+            FAQ f = snap.doc(d);
+            if (f != null && seen.add(f)) out.add(new ScoredFAQ(f, 0.0));
+        }
+        return out;
+    }
+
+    // which rule (if any) fires for this message
+    public Rule matchRule(String text) {
+        return rules.match(text);
+    }
+}
+
+/* -----------------------------
+   Supporting classes
+   ----------------------------- */
+class FAQ {
+    private final String question; // null when backed by a mapped index file
+    private final String answer;
+    private volatile List<String> tokens;
+    private final FaqTextStore store;
+    private final int slot;
+    int docId = -1; // doc id in the latest index snapshot; only read and written by the index writer
+
+    FAQ(String q, String a, List<String> tokens) {
+        this.question = q;
+        this.answer = a;
+        this.tokens = tokens;
+        this.store = null;
+        this.slot = -1;
+    }
+
+    // FAQ whose text lives in a mapped index file; decoded (and re-tokenized) only when used
+    FAQ(FaqTextStore store, int slot) {
+        this.question = null;
+        this.answer = null;
+        this.store = store;
+        this.slot = slot;
+    }
+
+    String question() {
+        return store == null ? question : store.question(slot);
+    }
+
+    String answer() {
+        return store == null ? answer : store.answer(slot);
+    }
+
+    List<String> tokens() {
+        List<String> t = tokens;
+        if (t == null) tokens = t = new NLP().tokenize(question());
+        return t;
+    }
+}
+
+class ScoredFAQ {
+    FAQ faq;
+    double score;
+    ScoredFAQ(FAQ f, double s) { this.faq = f; this.score = s; }
+}
+
+/* -----------------------------
+   Metrics (per-stage latency histograms, counters, JMX)
+   ----------------------------- */
+// Log-linear latency histogram in the spirit of HdrHistogram: 16 sub-buckets per power of two
+// (~6% relative error), lock-free increments, percentiles read from a moment-in-time walk.
+class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.increment();
+        sumNanos.add(nanos);
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    double meanNanos() {
+        long n = total.sum();
+        return n == 0 ? 0.0 : (double) sumNanos.sum() / n;
+    }
+
+    // upper edge of the bucket holding the p-th percentile (0 < p <= 1)
+    long percentileNanos(double p) {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) n += counts.get(i);
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return upperEdge(i);
+        }
+        return upperEdge(counts.length() - 1);
+    }
+
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        total.reset();
+        sumNanos.reset();
+    }
+
+    private static int bucket(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperEdge(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+}
+
+// Hot-path cost is one System.nanoTime() per stage boundary plus a few atomic increments.
+class ChatbotMetrics implements AIChatbotFull.MetricsMBean {
+    enum Stage { RULES, TOKENIZE, CACHE, TYPO, VECTORIZE, SCORE, FORMAT, RESPOND, BUILD, UPDATE, REWEIGHT }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder emptyQueries = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> ruleHits = new ConcurrentHashMap<>();
+    private final ChatbotEngine engine;
+
+    ChatbotMetrics(ChatbotEngine engine) {
+        this.engine = engine;
+        for (int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+    }
+
+    void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    void ruleHit(Rule rule) {
+        ruleHits.computeIfAbsent(rule.name, k -> new LongAdder()).increment();
+    }
+
+    void match() { matches.increment(); }
+    void fallback() { fallbacks.increment(); }
+    void emptyQuery() { emptyQueries.increment(); }
+
+    public long getMatches() { return matches.sum(); }
+    public long getFallbacks() { return fallbacks.sum(); }
+    public long getEmptyQueries() { return emptyQueries.sum(); }
+    public int getFaqCount() { return engine.faqCount(); }
+    public int getTermCount() { return engine.termCount(); }
+    public long getIndexGeneration() { return engine.indexGeneration(); }
+    public String getCacheStats() { return engine.cacheStats().toString(); }
+
+    public long getRuleHits() {
+        long n = 0;
+        for (LongAdder a : ruleHits.values()) n += a.sum();
+        return n;
+    }
+
+    public String[] getStageLatencies() {
+        String[] out = new String[stages.length];
+        for (Stage s : Stage.values()) {
+            LatencyHistogram h = stages[s.ordinal()];
+            out[s.ordinal()] = String.format("%-9s n=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus",
+                    s, h.count(), h.meanNanos() / 1e3, h.percentileNanos(0.50) / 1e3,
+                    h.percentileNanos(0.99) / 1e3, h.percentileNanos(0.999) / 1e3);
+        }
+        return out;
+    }
+
+    public double stageP99Micros(String stage) {
+        return stages[Stage.valueOf(stage.toUpperCase()).ordinal()].percentileNanos(0.99) / 1e3;
+    }
+
+    public void reset() {
+        for (LatencyHistogram h : stages) h.reset();
+        matches.reset();
+        fallbacks.reset();
+        emptyQueries.reset();
+        ruleHits.clear();
+    }
+
+    // register under AIChatbot:type=ChatbotMetrics (jconsole / VisualVM); a second engine in the same JVM is skipped
+    void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(this, AIChatbotFull.MetricsMBean.class), new ObjectName("AIChatbot:type=ChatbotMetrics"));
+        } catch (InstanceAlreadyExistsException e) {
+            // already registered by another engine
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    void dump(PrintStream out) {
+        out.printf("[metrics] faqs=%d terms=%d generation=%d matches=%d fallbacks=%d empty=%d rules=%s %s%n",
+                getFaqCount(), getTermCount(), getIndexGeneration(), getMatches(), getFallbacks(), getEmptyQueries(),
+                ruleCounts(), getCacheStats());
+        for (String line : getStageLatencies()) out.println("[metrics]   " + line);
+    }
+
+    private Map<String, Long> ruleCounts() {
+        Map<String, Long> m = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : ruleHits.entrySet()) m.put(e.getKey(), e.getValue().sum());
+        return m;
+    }
+}
+
+/* -----------------------------
+   Response cache (LRU, invalidated by index generation)
+   ----------------------------- */
+// Striped: each key hashes to one of SEGMENTS independently locked LRU maps, so concurrent sessions
+// only contend when their queries land in the same segment. Recency is per segment.
+class ResponseCache {
+    static final int SEGMENTS = 16;
+    private final int capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder(), stale = new LongAdder();
+
+    ResponseCache(int capacity) {
+        this.capacity = capacity;
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(perSegment);
+    }
+
+    private Segment segment(QueryKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ h >>> 16) & (SEGMENTS - 1)];
+    }
+
+    // reply for key if it was computed against this index generation, else null
+    public String get(QueryKey key, long generation) {
+        Segment seg = segment(key);
+        CachedReply c;
+        synchronized (seg) {
+            c = seg.get(key);
+            if (c != null && c.generation != generation) seg.remove(key);
+        }
+        if (c == null) {
+            misses.increment();
+            return null;
+        }
+        if (c.generation != generation) {
+            stale.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return c.reply;
+    }
+
+    public void put(QueryKey key, long generation, String reply) {
+        Segment seg = segment(key);
+        synchronized (seg) {
+            seg.put(key, new CachedReply(generation, reply));
+        }
+    }
+
+    public void clear() {
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                seg.clear();
+            }
+        }
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+    public long staleDrops() { return stale.sum(); }
+
+    public int size() {
+        int n = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                n += seg.size();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        long h = hits(), total = h + misses();
+        return String.format("cache size=%d/%d hits=%d misses=%d (hit rate %.1f%%) evictions=%d stale=%d",
+                size(), capacity, h, misses(), total == 0 ? 0.0 : 100.0 * h / total, evictions(), staleDrops());
+    }
+
+    // access-ordered LRU map; callers hold its monitor
+    private final class Segment extends LinkedHashMap<QueryKey, CachedReply> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedReply> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class CachedReply {
+        final long generation;
+        final String reply;
+
+        CachedReply(long generation, String reply) {
+            this.generation = generation;
+            this.reply = reply;
+        }
+    }
+}
+
+// order-independent query key: the sorted multiset of known term ids
+class QueryKey {
+    private final int[] ids;
+    private final String[] unknown; // sorted unknown tokens long enough for typo correction
+    private final int hash;
+
+    QueryKey(int[] termIds, List<String> unknownTokens) {
+        int n = 0;
+        for (int id : termIds) {
+            if (id >= 0) n++;
+        }
+        ids = new int[n];
+        n = 0;
+        for (int id : termIds) {
+            if (id >= 0) ids[n++] = id;
+        }
+        Arrays.sort(ids);
+        List<String> typos = new ArrayList<>(unknownTokens.size());
+        for (String t : unknownTokens) {
+            if (t.length() >= TrigramIndex.MIN_TOKEN_LENGTH) typos.add(t);
+        }
+        unknown = typos.toArray(new String[0]);
+        Arrays.sort(unknown);
+        hash = 31 * Arrays.hashCode(ids) + Arrays.hashCode(unknown);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof QueryKey && Arrays.equals(ids, ((QueryKey) o).ids) && Arrays.equals(unknown, ((QueryKey) o).unknown);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
+
+/* -----------------------------
+   Rule engine (keyword automaton)
+   ----------------------------- */
+class Rule {
+    String name;
+    int priority; // higher wins when several rules match one message
+    List<String> keywords;
+    String response;
+
+    Rule(String name, int priority, List<String> keywords, String response) {
+        this.name = name;
+        this.priority = priority;
+        this.keywords = keywords;
+        this.response = response;
+    }
+}
+
+// Aho-Corasick automaton over word ids: every keyword phrase of every rule is matched in one pass
+class RuleEngine {
+    private final List<Rule> rules;
+    private final TermDictionary words = new TermDictionary();
+    // per-node transitions as sorted (word id, target) arrays
+    private int[][] edgeWords;
+    private int[][] edgeTargets;
+    private int[] fail;
+    private int[] bestRule; // best rule ending here or at any suffix state, -1 if none
+
+    RuleEngine(List<Rule> rules) {
+        this.rules = new ArrayList<>(rules);
+        compile();
+    }
+
+    static RuleEngine defaults() {
+        return new RuleEngine(defaultRules());
+    }
+
+    static List<Rule> defaultRules() {
+        List<Rule> r = new ArrayList<>();
+        r.add(new Rule("profanity", 100, Arrays.asList("idiot", "stupid", "bakwas", "bewakoof"),
+                "Kripya shisht bhasha ka prayog karein. Main aapki madad ke liye yahan hoon."));
+        r.add(new Rule("escalation", 90, Arrays.asList("human", "agent", "manager", "complaint", "escalate", "talk to someone"),
+                "Main aapko support team se connect kar raha hoon: support@example.com ya 9876543210."));
+        r.add(new Rule("greeting", 30, Arrays.asList("hi", "hello", "hey", "namaste", "namaskar", "hola", "bonjour", "salaam", "vanakkam", "sat sri akal"),
+                "Hello! Main aapki kaise madad karun?"));
+        r.add(new Rule("thanks", 20, Arrays.asList("thank", "thanks", "shukriya", "dhanyavaad"),
+                "Aapka swagat hai! Aur kuch chahiye to bataiye."));
+        r.add(new Rule("bye", 10, Arrays.asList("bye", "goodbye", "see you", "phir milenge", "bye-bye"),
+                "Alvida! Aapka din shubh ho."));
+        return r;
+    }
+
+    // rules file, one per line: priority|name|keyword, multi word keyword, ...|response
+    static List<Rule> parseRules(List<String> lines) {
+        List<Rule> out = new ArrayList<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\|", 4);
+            if (parts.length != 4) continue;
+            try {
+                List<String> keywords = new ArrayList<>();
+                for (String k : parts[2].split(",")) {
+                    if (!k.trim().isEmpty()) keywords.add(k.trim());
+                }
+                out.add(new Rule(parts[1].trim(), Integer.parseInt(parts[0].trim()), keywords, parts[3].trim()));
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping rule with bad priority: " + line);
+            }
+        }
+        return out;
+    }
+
+    List<Rule> rules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    // highest-priority rule with a keyword phrase in text (earlier rule on ties), or null
+    public Rule match(String text) {
+        if (text == null || bestRule.length == 0) return null;
+        int[] state = { 0 };
+        int[] best = { -1 };
+        scanWords(text, (buf, len) -> {
+            state[0] = step(state[0], words.get(buf, len));
+            int r = bestRule[state[0]];
+            if (r >= 0 && better(r, best[0])) best[0] = r;
+        });
+        return best[0] < 0 ? null : rules.get(best[0]);
+    }
+
+    // lowercase words split at \b boundaries (letters, digits and '_' are word chars), as the old regexes did
+    private static void scanWords(String text, TokenSink sink) {
+        char[] buf = new char[32];
+        int len = 0;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                if (len == buf.length) buf = Arrays.copyOf(buf, len * 2);
+                buf[len++] = Character.toLowerCase(c);
+            } else if (len > 0) {
+                sink.token(buf, len);
+                len = 0;
+            }
+        }
+    }
+
+    private int step(int node, int word) {
+        if (word < 0) return 0; // word not in any keyword: no phrase can continue through it
+        while (true) {
+            int next = edge(node, word);
+            if (next >= 0) return next;
+            if (node == 0) return 0;
+            node = fail[node];
+        }
+    }
+
+    private int edge(int node, int word) {
+        int i = Arrays.binarySearch(edgeWords[node], word);
+        return i >= 0 ? edgeTargets[node][i] : -1;
+    }
+
+    private boolean better(int rule, int current) {
+        return current < 0 || rules.get(rule).priority > rules.get(current).priority
+                || rules.get(rule).priority == rules.get(current).priority && rule < current;
+    }
+
+    private void compile() {
+        // trie of keyword phrases
+        List<Map<Integer, Integer>> trie = new ArrayList<>();
+        List<Integer> out = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        out.add(-1);
+        for (int r = 0; r < rules.size(); r++) {
+            for (String keyword : rules.get(r).keywords) {
+                List<Integer> phrase = new ArrayList<>();
+                scanWords(keyword, (buf, len) -> phrase.add(words.intern(new String(buf, 0, len))));
+                if (phrase.isEmpty()) continue;
+                int node = 0;
+                for (int w : phrase) {
+                    Integer next = trie.get(node).get(w);
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new TreeMap<>());
+                        out.add(-1);
+                        trie.get(node).put(w, next);
+                    }
+                    node = next;
+                }
+                int cur = out.get(node);
+                if (cur < 0 || rules.get(r).priority > rules.get(cur).priority) out.set(node, r);
+            }
+        }
+
+        int n = trie.size();
+        edgeWords = new int[n][];
+        edgeTargets = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Map<Integer, Integer> m = trie.get(i);
+            edgeWords[i] = new int[m.size()];
+            edgeTargets[i] = new int[m.size()];
+            int j = 0;
+            for (Map.Entry<Integer, Integer> e : m.entrySet()) {
+                edgeWords[i][j] = e.getKey();
+                edgeTargets[i][j] = e.getValue();
+                j++;
+            }
+        }
+
+        // failure links breadth-first; each state also inherits the best rule of its suffix state
+        fail = new int[n];
+        bestRule = new int[n];
+        for (int i = 0; i < n; i++) bestRule[i] = out.get(i);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int t : edgeTargets[0]) queue.add(t);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int f = fail[node];
+            if (bestRule[f] >= 0 && (bestRule[node] < 0 || better(bestRule[f], bestRule[node]))) bestRule[node] = bestRule[f];
+            for (int j = 0; j < edgeWords[node].length; j++) {
+                int w = edgeWords[node][j];
+                int child = edgeTargets[node][j];
+                int g = f;
+                int target;
+                while ((target = edge(g, w)) < 0 && g != 0) g = fail[g];
+                fail[child] = target >= 0 && target != child ? target : 0;
+                queue.add(child);
+            }
+        }
+        if (n == 1) bestRule = new int[0];
+    }
+}
+
+/* -----------------------------
+   FAQ journal (write-ahead log + snapshot compaction)
+   ----------------------------- */
+// faq.txt is the snapshot; each add/edit/remove after it is appended to a journal segment
+// (faq.journal.<n>) before it is applied. Record: length, CRC32, type, then length-prefixed UTF-8
+// fields; edits and removals name the FAQ by its list position, which replay reproduces, and carry its
+// question as a check. Writers wait for durability outside the engine lock and share fsyncs: whoever takes the
+// sync lock forces everything appended so far (group commit). Compaction moves appends to a new
+// segment, writes the snapshot to a temp file, renames it over faq.txt and deletes the segments
+// it covers; the snapshot's first line ("# journal <n>") names the first segment it does not include.
+class FaqJournal {
+    static final byte ADD = 1, EDIT = 2, REMOVE = 3;
+    static final long COMPACT_BYTES = 4 << 20;
+    private static final String HEADER = "# journal ";
+
+    interface Replayer {
+        void apply(byte type, String[] fields);
+    }
+
+    private final Path snapshot;
+    private final Path base;
+    private FileChannel channel; // guarded by this
+    private long segment;        // guarded by this
+    private long segmentBytes;   // guarded by this
+    private long appended;       // records appended so far, guarded by this
+    private final Object syncLock = new Object();
+    private volatile long durable;
+
+    private FaqJournal(Path snapshot, Path base, long segment) throws IOException {
+        this.snapshot = snapshot;
+        this.base = base;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.segmentBytes = channel.size();
+    }
+
+    // replay the segments the snapshot does not cover, then continue in a fresh segment
+    static FaqJournal open(Path snapshot, Path base, Replayer replayer) throws IOException {
+        long first = snapshotSegment(snapshot);
+        long next = first;
+        boolean torn = false;
+        for (long n : segments(base)) {
+            Path p = segmentPath(base, n);
+            if (n < first || torn) {
+                Files.delete(p); // covered by the snapshot, or written after a torn record
+                continue;
+            }
+            torn = !replay(p, replayer);
+            next = n + 1;
+        }
+        return new FaqJournal(snapshot, base, next);
+    }
+
+    Path snapshotPath() {
+        return snapshot;
+    }
+
+    // log one change; returns its sequence number for awaitDurable
+    synchronized long append(byte type, String... fields) throws IOException {
+        byte[][] utf = new byte[fields.length][];
+        int len = 1;
+        for (int i = 0; i < fields.length; i++) {
+            utf[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            len += 4 + utf[i].length;
+        }
+        ByteBuffer body = ByteBuffer.allocate(len);
+        body.put(type);
+        for (byte[] b : utf) body.putInt(b.length).put(b);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, len);
+        ByteBuffer record = ByteBuffer.allocate(8 + len);
+        record.putInt(len).putInt((int) crc.getValue()).put(body.array());
+        record.flip();
+        while (record.hasRemaining()) channel.write(record);
+        segmentBytes += 8 + len;
+        return ++appended;
+    }
+
+    // returns once record seq is on disk; concurrent callers are covered by a single force
+    void awaitDurable(long seq) throws IOException {
+        if (durable >= seq) return;
+        synchronized (syncLock) {
+            if (durable >= seq) return;
+            FileChannel ch;
+            long target;
+            synchronized (this) {
+                ch = channel;
+                target = appended;
+            }
+            try {
+                ch.force(false);
+            } catch (ClosedChannelException e) {
+                // rotated meanwhile; rotate() forced the segment before closing it
+            }
+            durable = Math.max(durable, target);
+        }
+    }
+
+    synchronized boolean needsCompaction() {
+        return segmentBytes > COMPACT_BYTES;
+    }
+
+    // start a new segment; returns its number (the snapshot taken now covers everything before it)
+    synchronized long rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        segment++;
+        channel = openSegment(segment);
+        segmentBytes = 0;
+        return segment;
+    }
+
+    void writeSnapshot(List<String[]> rows, long firstUncovered) throws IOException {
+        writeSnapshot(snapshot, rows, firstUncovered);
+        for (long n : segments(base)) {
+            if (n < firstUncovered) Files.deleteIfExists(segmentPath(base, n));
+        }
+    }
+
+    // question | answer lines, written to a temp file, forced and atomically renamed over path;
+    // firstUncovered < 0 writes no journal header
+    static void writeSnapshot(Path path, List<String[]> rows, long firstUncovered) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+            if (firstUncovered >= 0) {
+                bw.write(HEADER + firstUncovered);
+                bw.newLine();
+            }
+            for (String[] row : rows) {
+                // write in safe format, replace newlines in answer
+                bw.write(row[0].replaceAll("\\r?\\n", " ") + " | " + row[1].replaceAll("\\r?\\n", " "));
+                bw.newLine();
+            }
+            bw.flush();
+            fos.getFD().sync();
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private FileChannel openSegment(long n) throws IOException {
+        return FileChannel.open(segmentPath(base, n), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(Path base, long n) {
+        return base.resolveSibling(base.getFileName() + "." + n);
+    }
+
+    // existing segment numbers, ascending
+    private static List<Long> segments(Path base) throws IOException {
+        Path dir = base.toAbsolutePath().getParent();
+        String prefix = base.getFileName() + ".";
+        List<Long> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path p : ds) {
+                String suffix = p.getFileName().toString().substring(prefix.length());
+                if (suffix.matches("\\d+")) out.add(Long.parseLong(suffix));
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    // true for a FAQ file written by compaction: it holds the whole corpus, built-in FAQs included
+    static boolean isSnapshot(Path path) {
+        try {
+            return Files.exists(path) && snapshotSegment(path) > 0;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long snapshotSegment(Path snapshot) throws IOException {
+        if (!Files.exists(snapshot)) return 0;
+        try (BufferedReader br = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+            String first = br.readLine();
+            if (first != null && first.startsWith(HEADER)) return Long.parseLong(first.substring(HEADER.length()).trim());
+        }
+        return 0;
+    }
+
+    // applies the segment's records; false (and the segment truncated) at a torn or corrupt record
+    private static boolean replay(Path p, Replayer replayer) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(p));
+        while (buf.remaining() > 0) {
+            int start = buf.position();
+            if (buf.remaining() < 8) return truncate(p, start);
+            int len = buf.getInt();
+            int crc = buf.getInt();
+            if (len < 1 || len > buf.remaining()) return truncate(p, start);
+            CRC32 check = new CRC32();
+            check.update(buf.array(), buf.position(), len);
+            if ((int) check.getValue() != crc) return truncate(p, start);
+            byte type = buf.get();
+            List<String> fields = new ArrayList<>(3);
+            int end = start + 8 + len;
+            while (buf.position() < end) {
+                byte[] b = new byte[buf.getInt()];
+                buf.get(b);
+                fields.add(new String(b, StandardCharsets.UTF_8));
+            }
+            replayer.apply(type, fields.toArray(new String[0]));
+        }
+        return true;
+    }
+
+    private static boolean truncate(Path p, long validBytes) throws IOException {
+        System.err.println("FAQ journal " + p.getFileName() + ": torn record at byte " + validBytes + ", later changes dropped");
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE)) {
+            ch.truncate(validBytes);
+        }
+        return false;
+    }
+}
+
+/* -----------------------------
+   Bulk FAQ ingestion (parallel chunks, dedup)
+   ----------------------------- */
+// A question|answer file is cut into byte ranges that are read, parsed and tokenized in parallel
+// on the common fork-join pool, one wave of chunks at a time, so memory is bounded by the wave and
+// not by the raw text. A chunk owns the lines that start inside it. Parsed FAQs are deduplicated in
+// file order on the normalized question and handed to the engine in batches of about BATCH_FAQS as
+// waves complete (each one index update, or a full build when the batch outgrows the corpus), so the
+// parsed FAQs held at once are bounded too.
+class FaqIngest {
+    static final int CHUNK_BYTES = 4 << 20;
+    static final int BATCH_FAQS = 1 << 16;
+
+    // lowercase, punctuation and whitespace runs collapsed to one space
+    static String normalize(String question) {
+        StringBuilder sb = new StringBuilder(question.length());
+        boolean space = false;
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0) sb.append(' ');
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    // streams the file into engine; returns { added, duplicates skipped }. A journal snapshot is the FAQ
+    // list itself, so only its questions already loaded are skipped, never repeats within it.
+    static int[] ingest(ChatbotEngine engine, Path path, NLP nlp) throws IOException {
+        boolean snapshot = FaqJournal.isSnapshot(path);
+        Set<String> seen = new HashSet<>();
+        for (String q : engine.questions()) seen.add(normalize(q));
+        List<FAQ> unique = new ArrayList<>();
+        int added = 0, duplicates = 0;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            int chunks = (int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+            int wave = Math.max(1, Runtime.getRuntime().availableProcessors());
+            for (int first = 0; first < chunks; first += wave) {
+                int from = first, to = Math.min(chunks, first + wave);
+                List<List<FAQ>> parsed = new ArrayList<>(Collections.<List<FAQ>>nCopies(to - from, null));
+                IntStream.range(from, to).parallel().forEach(c -> parsed.set(c - from,
+                        parseChunk(ch, (long) c * CHUNK_BYTES, Math.min(size, (long) (c + 1) * CHUNK_BYTES), nlp)));
+                for (List<FAQ> chunk : parsed) {
+                    for (FAQ f : chunk) {
+                        String key = normalize(f.question());
+                        if (snapshot ? !seen.contains(key) : seen.add(key)) unique.add(f);
+                        else duplicates++;
+                    }
+                }
+                if (unique.size() >= BATCH_FAQS) {
+                    engine.addFaqs(unique);
+                    added += unique.size();
+                    unique = new ArrayList<>();
+                }
+            }
+        }
+        engine.addFaqs(unique);
+        return new int[] { added + unique.size(), duplicates };
+    }
+
+    // FAQs from the lines starting in [start, end); the last one may run past end
+    private static List<FAQ> parseChunk(FileChannel ch, long start, long end, NLP nlp) {
+        try {
+            byte[] bytes = read(ch, start, end);
+            List<FAQ> out = new ArrayList<>();
+            int pos = 0;
+            if (start > 0) {
+                // the line in progress at start belongs to the previous chunk (unless start is a line start)
+                while (pos < bytes.length && bytes[pos] != '\n') pos++;
+                pos++;
+            }
+            int limit = (int) (end - (start > 0 ? start - 1 : start));
+            while (pos < limit && pos < bytes.length) {
+                int eol = pos;
+                while (eol < bytes.length && bytes[eol] != '\n') eol++;
+                parseLine(new String(bytes, pos, eol - pos, StandardCharsets.UTF_8), nlp, out);
+                pos = eol + 1;
+            }
+            return out;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // bytes from the one before start (to tell whether start begins a line) through the newline ending the range
+    private static byte[] read(FileChannel ch, long start, long end) throws IOException {
+        long from = start > 0 ? start - 1 : 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) (end - from) + 256);
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long pos = from;
+        while (true) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            out.write(buf.array(), 0, n);
+            pos += n;
+            if (pos >= end) {
+                // keep going only until the line that straddles end is complete
+                int nl = -1;
+                for (int i = (int) Math.max(0, end - 1 - (pos - n)); i < n && nl < 0; i++) {
+                    if (buf.get(i) == '\n') nl = i;
+                }
+                if (nl >= 0) break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void parseLine(String line, NLP nlp, List<FAQ> out) {
+        int bar = line.indexOf('|');
+        if (bar < 0) return;
+        String q = line.substring(0, bar).trim();
+        String a = line.substring(bar + 1).trim();
+        if (q.isEmpty() && a.isEmpty()) return;
+        out.add(new FAQ(q, a, nlp.tokenize(q)));
+    }
+}
+
+/* -----------------------------
+   Binary index file (memory-mapped on startup)
+   ----------------------------- */
+// Layout: header | text table (per FAQ: question offset/length, answer offset/length) | text blob
+//         | term dictionary | df | postings (size, max weight, doc ids, weights) | CRC32 of everything in between.
+// The header stamps the source FAQ file (size, mtime, CRC32) and the built-in FAQs, so a stale
+// index is never opened. Postings are bulk-copied out of the mapping; FAQ text stays in the
+// mapped file and is decoded only when a question or answer is actually shown.
+// Every count and offset read from the file is checked against the bytes that remain before it is
+// used, so a corrupt file is rejected (and rebuilt) instead of failing startup.
+class IndexFile {
+    private static final long MAGIC = 0x4641514944583031L; // "FAQIDX01"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8 + 4 + 3 * 8 + 8;
+
+    // write snapshot (which must hold no removed FAQs) next to the source file it was built from
+    static void write(Path indexPath, Path sourcePath, InvertedIndex snap) throws IOException {
+        Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            file.writeLong(MAGIC);
+            file.writeInt(VERSION);
+            for (long v : sourceStamp(sourcePath)) file.writeLong(v);
+            file.writeLong(ChatbotEngine.defaultFaqsChecksum());
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(file, crc));
+
+            int n = snap.docCount();
+            byte[][] questions = new byte[n][];
+            byte[][] answers = new byte[n][];
+            for (int d = 0; d < n; d++) {
+                questions[d] = snap.doc(d).question().getBytes(StandardCharsets.UTF_8);
+                answers[d] = snap.doc(d).answer().getBytes(StandardCharsets.UTF_8);
+            }
+            out.writeInt(n);
+            int offset = 0;
+            for (int d = 0; d < n; d++) {
+                out.writeInt(offset);
+                out.writeInt(questions[d].length);
+                offset += questions[d].length;
+                out.writeInt(offset);
+                out.writeInt(answers[d].length);
+                offset += answers[d].length;
+            }
+            out.writeInt(offset);
+            for (int d = 0; d < n; d++) {
+                out.write(questions[d]);
+                out.write(answers[d]);
+            }
+            snap.writeTo(out);
+            out.flush();
+            file.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // snapshot from a previously written index, or null if it is missing, corrupt or stale
+    static InvertedIndex open(Path indexPath, Path sourcePath) throws IOException {
+        if (!Files.exists(indexPath)) return null;
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) return null;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // mapping stays valid after close
+        }
+        try {
+            if (buf.getLong() != MAGIC || buf.getInt() != VERSION) return null;
+            for (long v : sourceStamp(sourcePath)) {
+                if (buf.getLong() != v) return null;
+            }
+            if (buf.getLong() != ChatbotEngine.defaultFaqsChecksum()) return null;
+            if (buf.limit() < HEADER_BYTES + 8) return null;
+            ByteBuffer body = buf.duplicate();
+            body.limit(buf.limit() - 8);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (buf.getLong(buf.limit() - 8) != crc.getValue()) return null;
+            buf.limit(buf.limit() - 8);
+
+            int n = count(buf, buf.getInt(), 16);
+            int table = buf.position();
+            buf.position(table + n * 16);
+            int blobLength = count(buf, buf.getInt(), 1);
+            for (int e = 0; e < 2 * n; e++) {
+                int offset = buf.getInt(table + 8 * e), length = buf.getInt(table + 8 * e + 4);
+                if (offset < 0 || length < 0 || offset > blobLength - length) throw new IllegalArgumentException("text out of range");
+            }
+            FaqTextStore store = new FaqTextStore(buf, table, buf.position());
+            buf.position(buf.position() + blobLength);
+
+            FAQ[] docs = new FAQ[n];
+            for (int d = 0; d < n; d++) docs[d] = new FAQ(store, d);
+            return InvertedIndex.readFrom(buf, docs);
+        } catch (RuntimeException e) {
+            return null; // truncated or corrupt: rebuild from the source instead
+        }
+    }
+
+    // count read from the file, if that many items of bytesEach can still follow; else the file is corrupt
+    static int count(ByteBuffer buf, int count, int bytesEach) {
+        if (count < 0 || count > buf.remaining() / bytesEach) throw new IllegalArgumentException("bad count " + count);
+        return count;
+    }
+
+    // {size, mtime, CRC32} of the source file; zeros when it does not exist
+    private static long[] sourceStamp(Path source) throws IOException {
+        if (!Files.exists(source)) return new long[] { -1L, 0L, 0L };
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(source)) {
+            byte[] chunk = new byte[1 << 16];
+            int r;
+            while ((r = in.read(chunk)) > 0) crc.update(chunk, 0, r);
+        }
+        return new long[] { Files.size(source), Files.getLastModifiedTime(source).toMillis(), crc.getValue() };
+    }
+}
+
+// FAQ text living in a mapped index file; decoded per call so it never has to sit on the heap
+class FaqTextStore {
+    private final ByteBuffer buf;
+    private final int table;
+    private final int blob;
+
+    FaqTextStore(ByteBuffer buf, int table, int blob) {
+        this.buf = buf;
+        this.table = table;
+        this.blob = blob;
+    }
+
+    String question(int slot) {
+        return read(buf.getInt(table + slot * 16), buf.getInt(table + slot * 16 + 4));
+    }
+
+    String answer(int slot) {
+        return read(buf.getInt(table + slot * 16 + 8), buf.getInt(table + slot * 16 + 12));
+    }
+
+    private String read(int offset, int length) {
+        byte[] b = new byte[length];
+        ByteBuffer view = buf.duplicate(); // absolute position per call, safe across threads
+        view.position(blob + offset);
+        view.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
+
+/* -----------------------------
+   Inverted index (term id -> postings)
+   ----------------------------- */
+// Immutable once built: updates return a new snapshot that shares every untouched page of the doc and
+// posting tables and every posting chunk, so readers holding the old snapshot are never affected by writers.
+// The posting entries themselves live off-heap in the lineage's PostingStore.
+final class InvertedIndex {
+    // re-weight once this share of the live FAQs was added/removed since the last full weighting
+    static final double REWEIGHT_RATIO = 0.10;
+    static final int REWEIGHT_MIN_CHANGES = 16;
+
+    private final TermDictionary terms; // view of a shared append-only dictionary, see TermDictionary
+    private final PagedArray<PostingList> postings; // term id -> postings and document frequency
+    private final PagedArray<FAQ> docs; // doc id -> FAQ, null once removed
+    private final TrigramIndex trigrams; // vocabulary trigrams for typo correction
+    private final int liveDocs;
+    private final int changesSinceWeighting;
+    private final long generation; // bumped on every change; cached replies from older generations are stale
+    private final long[] newest; // generation of the newest snapshot sharing these postings; only it may append
+    private final PostingStore store; // entries of every posting list sharing `newest`
+
+    private InvertedIndex(TermDictionary terms, PagedArray<PostingList> postings, PagedArray<FAQ> docs, TrigramIndex trigrams,
+                          int liveDocs, int changesSinceWeighting, long generation, long[] newest, PostingStore store) {
+        this.terms = terms;
+        this.postings = postings;
+        this.docs = docs;
+        this.trigrams = trigrams;
+        this.liveDocs = liveDocs;
+        this.changesSinceWeighting = changesSinceWeighting;
+        this.generation = generation;
+        this.newest = newest;
+        this.store = store;
+        newest[0] = generation;
+    }
+
+    // full build: document frequencies first so every FAQ is weighted with the final idf
+    static InvertedIndex build(List<FAQ> faqs, long generation) {
+        TermDictionary terms = new TermDictionary();
+        FAQ[] docs = faqs.toArray(new FAQ[0]);
+        int[][][] termCounts = new int[docs.length][][];
+        int[] df = new int[16];
+        for (int d = 0; d < docs.length; d++) {
+            termCounts[d] = countTerms(terms, docs[d].tokens());
+            if (terms.size() > df.length) df = Arrays.copyOf(df, Math.max(terms.size(), df.length * 2));
+            for (int id : termCounts[d][0]) df[id]++;
+        }
+
+        int entries = 0;
+        for (int id = 0; id < terms.size(); id++) entries += Math.max(df[id], 1);
+        PostingStore store = new PostingStore(entries); // every term's postings back to back
+        PostingList[] postings = new PostingList[terms.size()];
+        for (int id = 0; id < postings.length; id++) {
+            postings[id] = new PostingList(store, df[id]);
+            postings[id].df = df[id];
+        }
+        for (int d = 0; d < docs.length; d++) {
+            docs[d].docId = d;
+            SparseVector vec = weigh(termCounts[d], id -> postings[id].df, docs.length);
+            for (int i = 0; i < vec.ids.length; i++) postings[vec.ids[i]].add(d, vec.values[i]);
+        }
+        return new InvertedIndex(terms, PagedArray.of(postings), PagedArray.of(docs), TrigramIndex.build(terms),
+                docs.length, 0, generation, new long[1], store);
+    }
+
+    // copy-on-write update: work is proportional to the changed FAQs' tokens plus one copy of the page
+    // tables. Touched terms get new posting views whose appends land past every published view's entries;
+    // new terms are interned past the old dictionary's ids. New weights use the current idf.
+    // Updating a snapshot that already has a newer successor first copies every posting list.
+    InvertedIndex update(List<FAQ> removed, List<FAQ> added) {
+        if (newest[0] != generation) return detached().update(removed, added);
+        PagedArray.Editor<FAQ> newDocs = docs.edit();
+        PagedArray.Editor<PostingList> newPostings = postings.edit();
+        Map<Integer, PostingList> touched = new HashMap<>(); // term id -> this update's posting view
+        int live = liveDocs;
+
+        // removals leave tombstones in the postings that search skips and re-weighting drops
+        for (FAQ f : removed) {
+            int d = f.docId;
+            if (d < 0 || d >= docs.size() || docs.get(d) != f) continue;
+            for (int id : termIds(terms, f.tokens())) edit(newPostings, touched, id).df--;
+            newDocs.set(d, null);
+            f.docId = -1;
+            live--;
+        }
+
+        TermDictionary newTerms = terms;
+        for (FAQ f : added) {
+            for (String t : f.tokens()) {
+                if (newTerms == terms && terms.get(t) < 0) newTerms = terms.extend();
+            }
+        }
+        int[][][] termCounts = new int[added.size()][][];
+        for (int i = 0; i < termCounts.length; i++) termCounts[i] = countTerms(newTerms, added.get(i).tokens());
+        for (int id = newPostings.size(); id < newTerms.size(); id++) {
+            PostingList pl = new PostingList(store, 4);
+            newPostings.add(pl);
+            touched.put(id, pl);
+        }
+        for (int[][] counts : termCounts) {
+            for (int id : counts[0]) edit(newPostings, touched, id).df++;
+        }
+        live += added.size();
+
+        for (int i = 0; i < termCounts.length; i++) {
+            int d = docs.size() + i;
+            FAQ f = added.get(i);
+            f.docId = d;
+            newDocs.add(f);
+            SparseVector vec = weigh(termCounts[i], id -> touched.get(id).df, live);
+            for (int j = 0; j < vec.ids.length; j++) touched.get(vec.ids[j]).add(d, vec.values[j]);
+        }
+        return new InvertedIndex(newTerms, newPostings.publish(), newDocs.publish(), trigrams.extend(newTerms), live,
+                changesSinceWeighting + removed.size() + added.size(), generation + 1, newest, store);
+    }
+
+    // same snapshot over private copies of the postings, compacted into a new store
+    private InvertedIndex detached() {
+        PagedArray.Editor<PostingList> copies = postings.edit();
+        int entries = 0;
+        for (int id = 0; id < copies.size(); id++) entries += Math.max(copies.get(id).size, 1);
+        PostingStore to = new PostingStore(entries);
+        for (int id = 0; id < copies.size(); id++) copies.set(id, copies.get(id).copy(to));
+        return new InvertedIndex(terms, copies.publish(), docs, trigrams, liveDocs, changesSinceWeighting, generation, new long[1], to);
+    }
+
+    // this update's own view of a term's postings, made on first touch
+    private static PostingList edit(PagedArray.Editor<PostingList> postings, Map<Integer, PostingList> touched, int id) {
+        PostingList pl = touched.get(id);
+        if (pl == null) {
+            pl = postings.get(id).extend();
+            postings.set(id, pl);
+            touched.put(id, pl);
+        }
+        return pl;
+    }
+
+    // binary image of a compacted snapshot (no removed FAQs), see IndexFile
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(terms.size());
+        for (int id = 0; id < terms.size(); id++) {
+            byte[] b = terms.term(id).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        for (int id = 0; id < terms.size(); id++) out.writeInt(postings.get(id).df);
+        for (int id = 0; id < terms.size(); id++) {
+            PostingList pl = postings.get(id);
+            out.writeInt(pl.size);
+            out.writeDouble(pl.maxWeight);
+            for (PostingCursor c = new PostingCursor(pl, 1.0); !c.done(); c.next()) out.writeInt(c.doc());
+            for (PostingCursor c = new PostingCursor(pl, 1.0); !c.done(); c.next()) out.writeDouble(c.score());
+        }
+    }
+
+    // snapshot from the index section of a mapped file
+    // lengths, doc ids and weights are validated; IllegalArgumentException if the section is corrupt
+    static InvertedIndex readFrom(ByteBuffer buf, FAQ[] docs) {
+        int v = IndexFile.count(buf, buf.getInt(), 4 + 4 + 4 + 8); // length, df, posting count, max weight
+        TermDictionary terms = new TermDictionary();
+        for (int id = 0; id < v; id++) {
+            byte[] b = new byte[IndexFile.count(buf, buf.getInt(), 1)];
+            buf.get(b);
+            if (terms.intern(new String(b, StandardCharsets.UTF_8)) != id) throw new IllegalArgumentException("duplicate term");
+        }
+        int[] df = new int[IndexFile.count(buf, v, 4)];
+        buf.asIntBuffer().get(df);
+        buf.position(buf.position() + 4 * v);
+
+        // sizes first, so the postings fill one arena back to back
+        int postingsAt = buf.position();
+        int entries = 0;
+        for (int id = 0; id < v; id++) {
+            int size = IndexFile.count(buf, buf.getInt(), 4 + 8);
+            buf.position(buf.position() + 8 + 12 * size);
+            entries += Math.max(size, 1);
+        }
+        buf.position(postingsAt);
+        PostingStore store = new PostingStore(entries);
+        PostingList[] postings = new PostingList[v];
+        for (int id = 0; id < v; id++) {
+            int size = buf.getInt();
+            buf.getDouble(); // maxWeight, recomputed at the configured precision
+            if (df[id] < 0 || df[id] > docs.length) throw new IllegalArgumentException("bad df");
+            PostingList pl = new PostingList(store, size);
+            int weightsAt = buf.position() + 4 * size;
+            for (int j = 0, last = -1; j < size; j++) {
+                int doc = buf.getInt();
+                double weight = buf.getDouble(weightsAt + 8 * j);
+                if (doc <= last || doc >= docs.length || !(weight >= 0.0 && weight <= 1.0 + 1e-6)) {
+                    throw new IllegalArgumentException("bad posting");
+                }
+                pl.add(doc, weight);
+                last = doc;
+            }
+            buf.position(weightsAt + 8 * size);
+            pl.df = df[id];
+            postings[id] = pl;
+        }
+        for (int d = 0; d < docs.length; d++) docs[d].docId = d;
+        return new InvertedIndex(terms, PagedArray.of(postings), PagedArray.of(docs), TrigramIndex.build(terms), docs.length, 0, 1,
+                new long[1], store);
+    }
+
+    // idf drifts as FAQs come and go; callers re-weight lazily once enough has changed
+    public boolean needsReweight() {
+        return changesSinceWeighting >= Math.max(REWEIGHT_MIN_CHANGES, liveDocs * REWEIGHT_RATIO);
+    }
+
+    // no FAQ added or removed since the last full weighting: no tombstones, every weight from the current idf
+    public boolean isFullyWeighted() {
+        return changesSinceWeighting == 0;
+    }
+
+    // every weight recomputed with the current idf, removed FAQs compacted away
+    public InvertedIndex reweighted() {
+        List<FAQ> live = new ArrayList<>(liveDocs);
+        for (int d = 0; d < docs.size(); d++) {
+            if (docs.get(d) != null) live.add(docs.get(d));
+        }
+        return build(live, generation + 1);
+    }
+
+    public int termCount() {
+        return terms.size();
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    // read-only view for query tokenization
+    public TermDictionary dictionary() {
+        return terms;
+    }
+
+    public int docCount() {
+        return docs.size();
+    }
+
+    // FAQ with this doc id, null if it was removed
+    public FAQ doc(int d) {
+        return docs.get(d);
+    }
+
+    // live FAQs whose question contains the term
+    int df(int id) {
+        return postings.get(id).df;
+    }
+
+    // distinct term ids of a live FAQ's question
+    int[] termIds(int d) {
+        return termIds(terms, docs.get(d).tokens());
+    }
+
+    private static int[] termIds(TermDictionary terms, List<String> tokens) {
+        int[] ids = new int[tokens.size()];
+        int n = 0;
+        for (String t : tokens) {
+            int id = terms.get(t);
+            boolean seen = id < 0;
+            for (int i = 0; i < n && !seen; i++) seen = ids[i] == id;
+            if (!seen) ids[n++] = id;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    // nearest vocabulary term to an unknown token within the typo bound, -1 if none
+    int closestTerm(String token) {
+        return trigrams.closest(token, this::df);
+    }
+
+    // approximate off-heap footprint of the postings
+    long memoryBytes() {
+        long bytes = 0;
+        for (int id = 0; id < postings.size(); id++) bytes += postings.get(id).bytes();
+        return bytes;
+    }
+
+    // exact cosine top-k over candidates[0..n) (ascending live doc ids), e.g. from an approximate index:
+    // each query term's postings are merged with the candidates, galloping over the docs in between
+    List<ScoredFAQ> rerank(SparseVector q, int[] candidates, int n, int k) {
+        double[] scores = new double[n];
+        for (int i = 0; i < q.ids.length; i++) {
+            PostingCursor cursor = new PostingCursor(postings.get(q.ids[i]), q.values[i]);
+            for (int c = 0; c < n && !cursor.done(); c++) {
+                cursor.advanceTo(candidates[c]);
+                if (!cursor.done() && cursor.doc() == candidates[c]) scores[c] += cursor.score();
+            }
+        }
+        TopKHeap heap = new TopKHeap(k);
+        for (int c = 0; c < n; c++) {
+            if (docs.get(candidates[c]) != null && scores[c] > 0.0) heap.offer(candidates[c], scores[c]);
+        }
+        return heap.drain(docs);
+    }
+
+    // smoothed idf from document frequencies
+    private static double idf(int df, int liveDocs) {
+        return Math.log((liveDocs + 1.0) / (df + 1.0)) + 1.0;
+    }
+
+    // {term ids, counts} for a token list, registering new terms
+    private static int[][] countTerms(TermDictionary terms, List<String> tokens) {
+        Map<Integer, Integer> tf = new LinkedHashMap<>();
+        for (String t : tokens) tf.merge(terms.intern(t), 1, Integer::sum);
+        int[][] counts = new int[2][tf.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : tf.entrySet()) {
+            counts[0][i] = e.getKey();
+            counts[1][i] = e.getValue();
+            i++;
+        }
+        return counts;
+    }
+
+    // normalized TF-IDF vector from term counts, rounded to the stored precision
+    private static SparseVector weigh(int[][] counts, IntUnaryOperator df, int liveDocs) {
+        double[] weights = new double[counts[0].length];
+        for (int i = 0; i < weights.length; i++) weights[i] = counts[1][i] * idf(df.applyAsInt(counts[0][i]), liveDocs);
+        SparseVector vec = new SparseVector(counts[0], weights);
+        vec.normalize();
+        for (int i = 0; i < weights.length; i++) weights[i] = PostingList.round(weights[i]);
+        return vec;
+    }
+
+    // query vector over known term ids only (unknown terms, id -1, have no weight), normalized
+    public SparseVector vectorize(int[] termIds) {
+        Map<Integer, Integer> tf = new LinkedHashMap<>();
+        for (int id : termIds) {
+            if (id >= 0) tf.merge(id, 1, Integer::sum);
+        }
+        int[] ids = new int[tf.size()];
+        double[] weights = new double[tf.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : tf.entrySet()) {
+            ids[i] = e.getKey();
+            weights[i] = e.getValue() * idf(df(e.getKey()), liveDocs);
+            i++;
+        }
+        SparseVector vec = new SparseVector(ids, weights);
+        vec.normalize();
+        return vec;
+    }
+
+    // top-k live FAQs by cosine similarity (both sides unit length) in one doc-at-a-time pass.
+    // WAND pruning: postings are in doc-id order and each term's upper bound is
+    // query weight * max posting weight, so FAQs whose bounds cannot beat the current
+    // k-th best score are skipped without being scored.
+    // Corpora of at least PARALLEL_MIN_DOCS FAQs are split into SHARDS doc-id ranges scored on a
+    // fork-join pool; the per-shard heaps merge to exactly the single-threaded result.
+    public List<ScoredFAQ> topK(SparseVector q, int k) {
+        int n = docs.size();
+        if (SHARDS <= 1 || n < PARALLEL_MIN_DOCS) return topK(q, k, 0, n).drain(docs);
+        int shardSize = (n + SHARDS - 1) / SHARDS;
+        return SHARD_POOL.invoke(new ShardScan(q, k, 0, n, shardSize)).drain(docs);
+    }
+
+    // shard count and the corpus size below which one thread scores everything
+    static final int SHARDS = Integer.getInteger("chatbot.shards", Runtime.getRuntime().availableProcessors());
+    static final int PARALLEL_MIN_DOCS = Integer.getInteger("chatbot.parallelMinDocs", 50000);
+    private static final ForkJoinPool SHARD_POOL = new ForkJoinPool(Math.max(1, SHARDS));
+
+    // halves the doc-id range until it is one shard wide, then merges the children's heaps
+    private final class ShardScan extends RecursiveTask<TopKHeap> {
+        private static final long serialVersionUID = 1L;
+        private final SparseVector q;
+        private final int k, lo, hi, shardSize;
+
+        ShardScan(SparseVector q, int k, int lo, int hi, int shardSize) {
+            this.q = q;
+            this.k = k;
+            this.lo = lo;
+            this.hi = hi;
+            this.shardSize = shardSize;
+        }
+
+        @Override
+        protected TopKHeap compute() {
+            if (hi - lo <= shardSize) return topK(q, k, lo, hi);
+            int mid = lo + (hi - lo) / 2;
+            ShardScan left = new ShardScan(q, k, lo, mid, shardSize);
+            left.fork();
+            TopKHeap right = new ShardScan(q, k, mid, hi, shardSize).compute();
+            right.addAll(left.join());
+            return right;
+        }
+    }
+
+    // WAND pass over doc ids in [lo, hi)
+    private TopKHeap topK(SparseVector q, int k, int lo, int hi) {
+        PostingCursor[] cursors = new PostingCursor[q.ids.length];
+        int m = 0;
+        for (int i = 0; i < q.ids.length; i++) {
+            PostingList pl = postings.get(q.ids[i]);
+            if (pl.size > 0) {
+                PostingCursor c = new PostingCursor(pl, q.values[i]);
+                if (lo > 0) c.advanceTo(lo);
+                cursors[m++] = c;
+            }
+        }
+        TopKHeap heap = new TopKHeap(k);
+        while (true) {
+            // drop exhausted cursors and order the rest by current doc (few query terms: insertion sort)
+            int live = 0;
+            for (int i = 0; i < m; i++) {
+                if (!cursors[i].done() && cursors[i].doc() < hi) cursors[live++] = cursors[i];
+            }
+            m = live;
+            if (m == 0) break;
+            for (int i = 1; i < m; i++) {
+                PostingCursor c = cursors[i];
+                int j = i - 1;
+                while (j >= 0 && cursors[j].doc() > c.doc()) {
+                    cursors[j + 1] = cursors[j];
+                    j--;
+                }
+                cursors[j + 1] = c;
+            }
+
+            // pivot: first cursor at which the summed upper bounds could beat the k-th best score
+            double threshold = heap.threshold();
+            double bound = 0.0;
+            int pivot = -1;
+            for (int i = 0; i < m; i++) {
+                bound += cursors[i].upperBound;
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) break; // no remaining FAQ can enter the top-k
+            int pivotDoc = cursors[pivot].doc();
+
+            if (cursors[0].doc() == pivotDoc) {
+                double score = 0.0;
+                for (int i = 0; i < m && cursors[i].doc() == pivotDoc; i++) {
+                    score += cursors[i].score();
+                    cursors[i].next();
+                }
+                if (docs.get(pivotDoc) != null) heap.offer(pivotDoc, score);
+            } else {
+                // docs before the pivot doc only appear in these lists, whose bounds alone cannot win
+                for (int i = 0; i < pivot; i++) cursors[i].advanceTo(pivotDoc);
+            }
+        }
+        return heap;
+    }
+}
+
+// position in one term's postings during top-k retrieval
+class PostingCursor {
+    final PostingList list;
+    final double queryWeight;
+    final double upperBound;
+    int pos;
+    private int doc;              // doc id at pos, read once per move
+    private int chunk, end;       // current chunk and the end of its entries in this view
+    private int delta;            // column entry of posting pos is pos + delta
+    private IntBuffer docs;       // current chunk's arena columns
+    private FloatBuffer weights;
+    private ByteBuffer quantized;
+
+    PostingCursor(PostingList list, double queryWeight) {
+        this.list = list;
+        this.queryWeight = queryWeight;
+        this.upperBound = queryWeight * list.maxWeight;
+        enter(0);
+        load();
+    }
+
+    private void enter(int c) {
+        PostingStore.Chunk k = list.chunk(c);
+        chunk = c;
+        docs = k.arena.docs;
+        weights = k.arena.weights;
+        quantized = k.arena.quantized;
+        delta = k.offset - k.start;
+        end = Math.min(list.size, k.start + k.capacity);
+    }
+
+    boolean done() {
+        return pos >= list.size;
+    }
+
+    private void load() {
+        if (pos < list.size) doc = docs.get(pos + delta);
+    }
+
+    int doc() {
+        return doc;
+    }
+
+    double score() {
+        int e = pos + delta;
+        return queryWeight * (weights != null ? weights.get(e) : (quantized.get(e) & 0xFF) * PostingList.INT8_SCALE);
+    }
+
+    void next() {
+        if (++pos == end && pos < list.size) enter(chunk + 1);
+        load();
+    }
+
+    // first posting with doc >= target: whole chunks first, then galloping and binary search within one
+    void advanceTo(int target) {
+        while (end < list.size && docs.get(end - 1 + delta) < target) {
+            pos = end;
+            enter(chunk + 1);
+        }
+        int step = 1;
+        int hi = pos;
+        while (hi < end && docs.get(hi + delta) < target) {
+            pos = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, end);
+        int lo = pos;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (docs.get(mid + delta) < target) lo = mid + 1;
+            else hi = mid;
+        }
+        pos = lo;
+        load();
+    }
+}
+
+// bounded min-heap of (doc, score); on equal scores the lower doc id ranks higher
+class TopKHeap {
+    private final int k;
+    private final int[] docs;
+    private final double[] scores;
+    private int size;
+
+    TopKHeap(int k) {
+        this.k = k;
+        this.docs = new int[k];
+        this.scores = new double[k];
+    }
+
+    // score a doc must exceed to enter; 0 while the heap still has room
+    double threshold() {
+        return size < k ? 0.0 : scores[0];
+    }
+
+    void offer(int doc, double score) {
+        if (k == 0) return;
+        if (size < k) {
+            docs[size] = doc;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (worse(docs[0], scores[0], doc, score)) {
+            docs[0] = doc;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    // merge another shard's heap into this one
+    void addAll(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) offer(other.docs[i], other.scores[i]);
+    }
+
+    // best first
+    List<ScoredFAQ> drain(PagedArray<FAQ> faqs) {
+        ScoredFAQ[] out = new ScoredFAQ[size];
+        while (size > 0) {
+            out[size - 1] = new ScoredFAQ(faqs.get(docs[0]), scores[0]);
+            size--;
+            docs[0] = docs[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return new ArrayList<>(Arrays.asList(out));
+    }
+
+    // (docA, scoreA) ranks below (docB, scoreB)
+    private static boolean worse(int docA, double scoreA, int docB, double scoreB) {
+        return scoreA < scoreB || scoreA == scoreB && docA > docB;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(docs[i], scores[i], docs[parent], scores[parent])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && worse(docs[l], scores[l], docs[min], scores[min])) min = l;
+            if (r < size && worse(docs[r], scores[r], docs[min], scores[min])) min = r;
+            if (min == i) return;
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int d = docs[a];
+        docs[a] = docs[b];
+        docs[b] = d;
+        double s = scores[a];
+        scores[a] = scores[b];
+        scores[b] = s;
+    }
+}
+
+// Persistent array: PAGE_SIZE-slot pages behind a page table. An editor copies the page table once and
+// each page it writes to once; every other page stays shared with the array it was made from.
+final class PagedArray<T> {
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private final Object[][] pages;
+    private final int size;
+
+    private PagedArray(Object[][] pages, int size) {
+        this.pages = pages;
+        this.size = size;
+    }
+
+    static <T> PagedArray<T> of(T[] values) {
+        Object[][] pages = new Object[(values.length + PAGE_SIZE - 1) >>> PAGE_BITS][];
+        for (int p = 0; p < pages.length; p++) {
+            pages[p] = Arrays.copyOfRange(values, p << PAGE_BITS, (p + 1) << PAGE_BITS, Object[].class);
+        }
+        return new PagedArray<>(pages, values.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int i) {
+        return (T) pages[i >>> PAGE_BITS][i & PAGE_SIZE - 1];
+    }
+
+    int size() {
+        return size;
+    }
+
+    Editor<T> edit() {
+        return new Editor<>(this);
+    }
+
+    // single-writer draft of the next version; publish() freezes it
+    static final class Editor<T> {
+        private Object[][] pages;
+        private boolean[] owned; // pages already copied by this editor
+        private int size;
+
+        private Editor(PagedArray<T> base) {
+            pages = base.pages.clone();
+            owned = new boolean[pages.length];
+            size = base.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int i) {
+            return (T) pages[i >>> PAGE_BITS][i & PAGE_SIZE - 1];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void set(int i, T value) {
+            int p = i >>> PAGE_BITS;
+            if (!owned[p]) {
+                pages[p] = pages[p].clone();
+                owned[p] = true;
+            }
+            pages[p][i & PAGE_SIZE - 1] = value;
+        }
+
+        void add(T value) {
+            int p = size >>> PAGE_BITS;
+            if (p == pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(4, p * 2));
+                owned = Arrays.copyOf(owned, pages.length);
+            }
+            if (pages[p] == null) {
+                pages[p] = new Object[PAGE_SIZE];
+                owned[p] = true;
+            }
+            size++;
+            set(size - 1, value);
+        }
+
+        PagedArray<T> publish() {
+            PagedArray<T> out = new PagedArray<>(pages, size);
+            pages = null; // further edits would change the published version
+            return out;
+        }
+    }
+}
+
+// One term's postings, doc ids ascending (FAQs are only ever appended), so cursors can skip forward.
+// Entries live in chunks of a PostingStore that never move. An update extends the postings of the newest
+// snapshot into a new view and appends past its entries (into a new chunk once the last one is full);
+// views held by older snapshots keep reading only their own prefix.
+// Weights are float32 by default, or int8 at the fixed scale 1/255 (normalized TF-IDF weights lie in [0, 1]).
+class PostingList {
+    enum Precision { FLOAT32, INT8 }
+
+    // -Dchatbot.vectorPrecision=float32|int8
+    static final Precision PRECISION = Precision.valueOf(System.getProperty("chatbot.vectorPrecision", "float32").toUpperCase());
+    static final double INT8_SCALE = 1.0 / 255;
+
+    private final PostingStore store;
+    private PostingStore.Chunk[] chunks;
+    int size;
+    int df;           // live FAQs containing the term
+    double maxWeight; // upper bound for pruning; tombstoned entries may keep it high until re-weight
+
+    PostingList(PostingStore store, int capacity) {
+        this.store = store;
+        chunks = new PostingStore.Chunk[] { store.reserve(Math.max(capacity, 1), 0) };
+    }
+
+    private PostingList(PostingList src) {
+        store = src.store;
+        chunks = src.chunks;
+        size = src.size;
+        df = src.df;
+        maxWeight = src.maxWeight;
+    }
+
+    // view for a newer snapshot with the same entries; its appends are invisible to this one
+    PostingList extend() {
+        return new PostingList(this);
+    }
+
+    PostingStore.Chunk chunk(int c) {
+        return chunks[c];
+    }
+
+    void add(int doc, double weight) {
+        PostingStore.Chunk c = chunks[chunks.length - 1];
+        int j = size - c.start;
+        if (j == c.capacity) {
+            c = addChunk(Math.max(4, size));
+            j = 0;
+        }
+        c.arena.put(c.offset + j, doc, weight);
+        maxWeight = Math.max(maxWeight, c.arena.weight(c.offset + j));
+        size++;
+    }
+
+    // the chunk directory is shared with older views, so a new chunk means a new directory
+    private PostingStore.Chunk addChunk(int capacity) {
+        PostingStore.Chunk c = store.reserve(capacity, size);
+        chunks = Arrays.copyOf(chunks, chunks.length + 1);
+        chunks[chunks.length - 1] = c;
+        return c;
+    }
+
+    // this view's entries in one chunk of another store, weights copied as stored
+    PostingList copy(PostingStore to) {
+        PostingList out = new PostingList(to, size);
+        PostingStore.Chunk dst = out.chunks[0];
+        for (PostingStore.Chunk c : chunks) {
+            int n = Math.min(size - c.start, c.capacity);
+            c.arena.copyTo(c.offset, dst.arena, dst.offset + c.start, n);
+        }
+        out.size = size;
+        out.df = df;
+        out.maxWeight = maxWeight;
+        return out;
+    }
+
+    long bytes() {
+        long bytes = 0;
+        for (PostingStore.Chunk c : chunks) bytes += (long) c.capacity * PostingStore.ENTRY_BYTES;
+        return bytes;
+    }
+
+    // weight as stored at the configured precision; index code rounds through this so WAND and re-rank scores agree
+    static double round(double w) {
+        if (PRECISION == Precision.FLOAT32) return (float) w;
+        return (quantize(w) & 0xFF) * INT8_SCALE;
+    }
+
+    static byte quantize(double w) {
+        return (byte) Math.round(Math.min(1.0, Math.max(0.0, w)) * 255);
+    }
+}
+
+/* -----------------------------
+   Off-heap posting columns
+   ----------------------------- */
+// The posting entries of one index lineage, outside the heap in two columns: doc ids (int32) and weights
+// (float32, or int8 at PostingList.INT8_SCALE), native byte order. Each chunk is a contiguous range of
+// both columns, so cursors walk them linearly. A full build reserves every term's postings back to back
+// in one arena sized to fit; updates reserve from the free tail, and open a larger arena once it is full.
+// Arenas are never moved or resized, so older snapshots keep sharing every range they read.
+// Single writer: only the newest snapshot reserves and writes, past every published view's entries.
+final class PostingStore {
+    static final int ENTRY_BYTES = 4 + (PostingList.PRECISION == PostingList.Precision.INT8 ? 1 : 4);
+
+    private Arena arena;
+
+    PostingStore(int capacity) {
+        arena = new Arena(Math.max(capacity, 16));
+    }
+
+    // n free entries holding a list's entries from start on
+    Chunk reserve(int n, int start) {
+        if (arena.capacity - arena.used < n) arena = new Arena(Math.max(n, 2 * arena.capacity));
+        Chunk c = new Chunk(arena, arena.used, n, start);
+        arena.used += n;
+        return c;
+    }
+
+    // entries [offset, offset + capacity) of an arena; list entry start + j is at offset + j
+    static final class Chunk {
+        final Arena arena;
+        final int offset;
+        final int capacity;
+        final int start;
+
+        Chunk(Arena arena, int offset, int capacity, int start) {
+            this.arena = arena;
+            this.offset = offset;
+            this.capacity = capacity;
+            this.start = start;
+        }
+    }
+
+    static final class Arena {
+        final IntBuffer docs;
+        final FloatBuffer weights;  // FLOAT32 precision
+        final ByteBuffer quantized; // INT8 precision
+        final int capacity;
+        private int used;
+
+        private Arena(int capacity) {
+            this.capacity = capacity;
+            docs = ByteBuffer.allocateDirect(4 * capacity).order(ByteOrder.nativeOrder()).asIntBuffer();
+            if (PostingList.PRECISION == PostingList.Precision.INT8) {
+                quantized = ByteBuffer.allocateDirect(capacity);
+                weights = null;
+            } else {
+                weights = ByteBuffer.allocateDirect(4 * capacity).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                quantized = null;
+            }
+        }
+
+        double weight(int e) {
+            return weights != null ? weights.get(e) : (quantized.get(e) & 0xFF) * PostingList.INT8_SCALE;
+        }
+
+        void put(int e, int doc, double weight) {
+            docs.put(e, doc);
+            if (weights != null) weights.put(e, (float) weight);
+            else quantized.put(e, PostingList.quantize(weight));
+        }
+
+        void copyTo(int from, Arena dst, int to, int n) {
+            for (int i = 0; i < n; i++) {
+                dst.docs.put(to + i, docs.get(from + i));
+                if (weights != null) dst.weights.put(to + i, weights.get(from + i));
+                else dst.quantized.put(to + i, quantized.get(from + i));
+            }
+        }
+    }
+}
+
+/* -----------------------------
+   Typo tolerance (vocabulary trigrams)
+   ----------------------------- */
+// Trigram lists over the vocabulary, built from "$" + term + "$" so an n-char term has n trigrams.
+// An unknown query token is compared by restricted Damerau-Levenshtein distance only with terms that
+// share enough trigrams to be within the distance bound, most shared first, until the per-token
+// time budget runs out. Shared across snapshots like the dictionary: the lists only ever grow, new terms
+// append their ids, and each snapshot's view reads only ids below its own dictionary size.
+final class TrigramIndex {
+    static final int MIN_TOKEN_LENGTH = 3;
+    // -Dchatbot.typoBudgetMicros: time allowed per unknown token
+    static final long BUDGET_NANOS = 1000L * Integer.getInteger("chatbot.typoBudgetMicros", 200);
+    private static final ThreadLocal<int[][]> SHARED_COUNTS = ThreadLocal.withInitial(() -> new int[][] { new int[64] });
+
+    private final Lists lists;
+    private final TermDictionary terms;
+
+    private TrigramIndex(Lists lists, TermDictionary terms) {
+        this.lists = lists;
+        this.terms = terms;
+    }
+
+    // packed trigram -> list, open addressing; a full table is replaced, never resized in place
+    private static final class Lists {
+        volatile GramList[] table = new GramList[64];
+        int count;   // lists in the table
+        int indexed; // terms indexed by any view
+
+        GramList get(long gram) {
+            GramList[] t = table;
+            return t[find(t, gram)];
+        }
+
+        void add(long gram, int id) {
+            GramList[] t = table;
+            int slot = find(t, gram);
+            GramList list = t[slot];
+            if (list == null) {
+                if ((count + 1) * 2 > t.length) {
+                    t = rehash(t);
+                    table = t;
+                    slot = find(t, gram);
+                }
+                list = new GramList(gram);
+                t[slot] = list;
+                count++;
+            }
+            list.append(id);
+        }
+    }
+
+    // term ids with one trigram, ascending; size is written after the id it covers
+    private static final class GramList {
+        final long gram;
+        volatile int[] ids = new int[4];
+        volatile int size;
+
+        GramList(long gram) {
+            this.gram = gram;
+        }
+
+        void append(int id) {
+            int[] a = ids;
+            if (size == a.length) ids = a = Arrays.copyOf(a, size * 2);
+            a[size] = id;
+            size++;
+        }
+    }
+
+    static TrigramIndex build(TermDictionary terms) {
+        return new TrigramIndex(new Lists(), new TermDictionary()).extend(terms);
+    }
+
+    // index over newTerms, which extends this index's dictionary with ids terms.size()..newTerms.size()-1;
+    // appended to the shared lists when no other view got there first, else rebuilt from scratch
+    TrigramIndex extend(TermDictionary newTerms) {
+        int from = terms.size();
+        if (newTerms.size() == from) return this;
+        Lists l = lists;
+        if (l.indexed != from) {
+            l = new Lists();
+            from = 0;
+        }
+        for (int id = from; id < newTerms.size(); id++) {
+            for (long g : trigrams(newTerms.term(id))) l.add(g, id);
+        }
+        l.indexed = newTerms.size();
+        return new TrigramIndex(l, newTerms);
+    }
+
+    private static int find(GramList[] t, long g) {
+        int mask = t.length - 1;
+        int slot = (int) (g ^ g >>> 29) * 0x9E3779B9 >>> 7 & mask;
+        while (t[slot] != null && t[slot].gram != g) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static GramList[] rehash(GramList[] t) {
+        GramList[] out = new GramList[t.length * 2];
+        for (GramList list : t) {
+            if (list != null) out[find(out, list.gram)] = list;
+        }
+        return out;
+    }
+
+    // closest term with df > 0 within the edit-distance bound (more frequent on ties), or -1
+    int closest(String token, IntUnaryOperator df) {
+        if (token.length() < MIN_TOKEN_LENGTH) return -1;
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        int maxDist = token.length() <= 4 ? 1 : 2;
+        long[] grams = trigrams(token);
+        int limit = terms.size();
+
+        // shared-trigram counts in a per-thread scratch array, reset through the touched ids
+        int[][] holder = SHARED_COUNTS.get();
+        if (holder[0].length < limit) holder[0] = new int[Math.max(limit, holder[0].length * 2)];
+        int[] counts = holder[0];
+        int[] touched = new int[16];
+        int t = 0;
+        for (long g : grams) {
+            GramList list = lists.get(g);
+            if (list == null) continue;
+            if (t > 0 && System.nanoTime() > deadline) break;
+            int n = list.size;
+            int[] ids = list.ids;
+            for (int i = 0; i < n && ids[i] < limit; i++) {
+                int id = ids[i];
+                if (counts[id]++ == 0) {
+                    if (t == touched.length) touched = Arrays.copyOf(touched, t * 2);
+                    touched[t++] = id;
+                }
+            }
+        }
+
+        // each edit destroys at most 3 trigrams, so terms within distance e share >= grams - 3e of them;
+        // candidates are verified most-shared first and the bound tightens as better ones are found
+        int best = -1, bestDist = maxDist + 1, checked = 0;
+        search:
+        for (int c = grams.length; c >= Math.max(1, grams.length - 3 * Math.min(maxDist, bestDist)); c--) {
+            for (int i = 0; i < t; i++) {
+                int id = touched[i];
+                if (counts[id] != c || df.applyAsInt(id) == 0) continue;
+                if ((++checked & 15) == 0 && System.nanoTime() > deadline) break search;
+                String term = terms.term(id);
+                if (Math.abs(term.length() - token.length()) > Math.min(maxDist, bestDist)) continue;
+                int d = distance(token, term, Math.min(maxDist, bestDist));
+                if (d > maxDist) continue;
+                if (d < bestDist || d == bestDist && df.applyAsInt(id) > df.applyAsInt(best)) {
+                    best = id;
+                    bestDist = d;
+                }
+            }
+        }
+        for (int i = 0; i < t; i++) counts[touched[i]] = 0;
+        return best;
+    }
+
+    // distinct packed trigrams of "$" + s + "$"
+    private static long[] trigrams(String s) {
+        String p = "$" + s + "$";
+        long[] out = new long[p.length() - 2];
+        int n = 0;
+        for (int i = 0; i + 3 <= p.length(); i++) {
+            long g = (long) p.charAt(i) << 32 | (long) p.charAt(i + 1) << 16 | p.charAt(i + 2);
+            boolean seen = false;
+            for (int j = 0; j < n && !seen; j++) seen = out[j] == g;
+            if (!seen) out[n++] = g;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // optimal string alignment distance, or max + 1 once it must exceed max
+    static int distance(String a, String b, int max) {
+        int m = b.length();
+        int[] prev2 = new int[m + 1], prev = new int[m + 1], cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= m; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int v = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    v = Math.min(v, prev2[j - 2] + 1);
+                }
+                cur[j] = v;
+                rowMin = Math.min(rowMin, v);
+            }
+            if (rowMin > max) return max + 1;
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return Math.min(prev[m], max + 1);
+    }
+}
+
+/* -----------------------------
+   Approximate retrieval (MinHash LSH)
+   ----------------------------- */
+// Banded MinHash over each FAQ's term set. FAQs that agree with the query on every row of at least
+// one band become candidates and are re-ranked with exact cosine similarity. More bands raise recall,
+// more rows per band shrink the buckets, and maxCandidates bounds the re-rank work per query.
+// Built for one index snapshot; the engine rebuilds it in the background once the index changes.
+final class MinHashIndex {
+    static final class Params {
+        static final Params DEFAULT = new Params(32, 1, 4000);
+        final int bands, rows, maxCandidates;
+
+        Params(int bands, int rows, int maxCandidates) {
+            if (bands < 1 || rows < 1 || maxCandidates < 1) throw new IllegalArgumentException("LSH parameters must be positive");
+            this.bands = bands;
+            this.rows = rows;
+            this.maxCandidates = maxCandidates;
+        }
+
+        // -Dchatbot.lsh=bands,rows,maxCandidates (or -Dchatbot.lsh=default); null when unset
+        static Params fromSystemProperties() {
+            String spec = System.getProperty("chatbot.lsh");
+            if (spec == null || spec.isEmpty()) return null;
+            if (spec.equals("default")) return DEFAULT;
+            String[] p = spec.split(",");
+            if (p.length != 3) throw new IllegalArgumentException("chatbot.lsh must be bands,rows,maxCandidates: " + spec);
+            return new Params(Integer.parseInt(p[0].trim()), Integer.parseInt(p[1].trim()), Integer.parseInt(p[2].trim()));
+        }
+
+        @Override
+        public String toString() {
+            return bands + " bands x " + rows + " rows, max " + maxCandidates + " candidates";
+        }
+    }
+
+    private final InvertedIndex snapshot;
+    private final Params params;
+    private final int[] hashA, hashB; // bands * rows hash functions (multiply-add, then mixed)
+    private final long[][] bandKeys;  // per band, sorted (bandHash << 32 | docId)
+
+    private MinHashIndex(InvertedIndex snapshot, Params params, int[] hashA, int[] hashB, long[][] bandKeys) {
+        this.snapshot = snapshot;
+        this.params = params;
+        this.hashA = hashA;
+        this.hashB = hashB;
+        this.bandKeys = bandKeys;
+    }
+
+    static MinHashIndex build(InvertedIndex snap, Params p) {
+        int fns = p.bands * p.rows;
+        Random random = new Random(0x5EEDL); // fixed, so rebuilds hash identically
+        int[] a = new int[fns], b = new int[fns];
+        for (int i = 0; i < fns; i++) {
+            a[i] = random.nextInt() | 1;
+            b[i] = random.nextInt();
+        }
+        long[][] keys = new long[p.bands][snap.docCount()];
+        int[] sig = new int[fns];
+        int n = 0;
+        for (int d = 0; d < snap.docCount(); d++) {
+            if (snap.doc(d) == null) continue;
+            int[] ids = snap.termIds(d);
+            if (ids.length == 0) continue;
+            signature(ids, a, b, sig);
+            for (int band = 0; band < p.bands; band++) keys[band][n] = (long) bandHash(sig, band, p.rows) << 32 | d;
+            n++;
+        }
+        for (int band = 0; band < p.bands; band++) {
+            keys[band] = Arrays.copyOf(keys[band], n);
+            Arrays.sort(keys[band]);
+        }
+        return new MinHashIndex(snap, p, a, b, keys);
+    }
+
+    InvertedIndex snapshot() {
+        return snapshot;
+    }
+
+    Params params() {
+        return params;
+    }
+
+    // exact top-k among the LSH candidates; empty when no FAQ shares a band with the query
+    List<ScoredFAQ> topK(SparseVector q, int k) {
+        if (q.ids.length == 0) return Collections.emptyList();
+        int[] sig = new int[hashA.length];
+        signature(q.ids, hashA, hashB, sig);
+        // each band contributes at most its share, so one huge bucket of a common term cannot crowd out the rest
+        int perBand = Math.max(1, params.maxCandidates / params.bands);
+        int[] candidates = new int[params.bands * perBand];
+        int n = 0;
+        for (int band = 0; band < params.bands; band++) {
+            long[] keys = bandKeys[band];
+            int h = bandHash(sig, band, params.rows);
+            int i = lowerBound(keys, (long) h << 32);
+            for (int taken = 0; i < keys.length && (int) (keys[i] >> 32) == h && taken < perBand; i++, taken++) {
+                candidates[n++] = (int) keys[i];
+            }
+        }
+        Arrays.sort(candidates, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || candidates[unique - 1] != candidates[i]) candidates[unique++] = candidates[i];
+        }
+        return snapshot.rerank(q, candidates, unique, k);
+    }
+
+    private static void signature(int[] ids, int[] a, int[] b, int[] sig) {
+        for (int f = 0; f < sig.length; f++) {
+            int min = Integer.MAX_VALUE;
+            for (int id : ids) min = Math.min(min, mix(id * a[f] + b[f]));
+            sig[f] = min;
+        }
+    }
+
+    private static int bandHash(int[] sig, int band, int rows) {
+        int h = 0;
+        for (int r = band * rows, end = r + rows; r < end; r++) h = mix(h * 31 + sig[r]);
+        return h;
+    }
+
+    // murmur3 finalizer
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ h >>> 16;
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
+
+class SparseVector {
+    int[] ids;
+    double[] values;
+
+    SparseVector(int[] ids, double[] values) {
+        this.ids = ids;
+        this.values = values;
+    }
+
+    void normalize() {
+        double sum = 0.0;
+        for (double d : values) sum += d * d;
+        if (sum == 0.0) return;
+        double norm = Math.sqrt(sum);
+        for (int i = 0; i < values.length; i++) values[i] /= norm;
+    }
+}
+
+/* -----------------------------
+   Minimal NLP utilities
+   ----------------------------- */
+interface TokenSink {
+    // buf[0..len) holds a lowercased, stopword-filtered, stemmed token; only valid during the call
+    void token(char[] buf, int len);
+}
+
+class NLP {
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList(
+            "a","an","the","is","are","was","were","in","on","at","to","for","of","and","or","but",
+            "what","how","why","do","does","did","i","you","we","they","he","she","it","my","your",
+            "please","me","can","could","would","will","shall","this","that","these","those","from",
+            "by","with","about","as","be","have","has","had","so","if","then","its","isnt","dont"
+    ));
+    private static final TermDictionary STOPWORD_TABLE = new TermDictionary();
+    static {
+        for (String w : STOPWORDS) STOPWORD_TABLE.intern(w);
+    }
+    private static final ThreadLocal<char[][]> BUFFER = ThreadLocal.withInitial(() -> new char[][] { new char[32] });
+
+    // lowercase, remove punctuation, tokenize, remove stopwords, naive stem
+    public List<String> tokenize(String text) {
+        if (text == null) return Collections.emptyList();
+        List<String> out = new ArrayList<>();
+        tokenize(text, (buf, len) -> out.add(new String(buf, 0, len)));
+        return out;
+    }
+
+    // term ids from dict for each token, -1 where the token is not in the dictionary
+    public int[] termIds(String text, TermDictionary dict) {
+        return termIds(text, dict, null);
+    }
+
+    // as above; tokens missing from dict (id -1) are also added to unknown, in order
+    public int[] termIds(String text, TermDictionary dict, List<String> unknown) {
+        if (text == null) return new int[0];
+        int[][] ids = { new int[8] };
+        int[] n = { 0 };
+        tokenize(text, (buf, len) -> {
+            if (n[0] == ids[0].length) ids[0] = Arrays.copyOf(ids[0], n[0] * 2);
+            int id = dict.get(buf, len);
+            ids[0][n[0]++] = id;
+            if (id < 0 && unknown != null) unknown.add(new String(buf, 0, len));
+        });
+        return Arrays.copyOf(ids[0], n[0]);
+    }
+
+    // single pass over the chars into a reused per-thread buffer; no regex or intermediate Strings
+    public void tokenize(String text, TokenSink sink) {
+        if (text == null) return;
+        if (localeSensitiveLowercase()) {
+            for (String t : tokenizeLegacy(text)) sink.token(t.toCharArray(), t.length());
+            return;
+        }
+        char[][] holder = BUFFER.get();
+        char[] buf = holder[0];
+        int len = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            char folded;
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                folded = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                folded = (char) (c + ('a' - 'A'));
+            } else if (c == 'K') {
+                folded = 'k'; // KELVIN SIGN lowercases to ASCII k
+            } else if (c == 'İ') {
+                // 'İ' lowercases to "i̇"; the combining dot is punctuation and ends the token
+                if (len == buf.length) holder[0] = buf = Arrays.copyOf(buf, len * 2);
+                buf[len++] = 'i';
+                len = emit(buf, len, sink);
+                continue;
+            } else {
+                len = emit(buf, len, sink);
+                continue;
+            }
+            if (len == buf.length) holder[0] = buf = Arrays.copyOf(buf, len * 2);
+            buf[len++] = folded;
+        }
+        emit(buf, len, sink);
+    }
+
+    // stopword check on the raw token, then naive stem by trimming the length; returns the reset length
+    private int emit(char[] buf, int len, TokenSink sink) {
+        if (len == 0 || STOPWORD_TABLE.get(buf, len) >= 0) return 0;
+        sink.token(buf, naiveStem(buf, len));
+        return 0;
+    }
+
+    // very naive stemmer
+    private int naiveStem(char[] w, int len) {
+        if (len > 4 && w[len - 3] == 'i' && w[len - 2] == 'n' && w[len - 1] == 'g') return len - 3;
+        if (len > 3 && w[len - 2] == 'e' && w[len - 1] == 'd') return len - 2;
+        if (len > 3 && w[len - 1] == 's') return len - 1;
+        return len;
+    }
+
+    // String.toLowerCase() maps 'I' differently under these default locales; keep the old path there
+    private static boolean localeSensitiveLowercase() {
+        String lang = Locale.getDefault().getLanguage();
+        return lang.equals("tr") || lang.equals("az") || lang.equals("lt");
+    }
+
+    private List<String> tokenizeLegacy(String text) {
+        String t = text.toLowerCase();
+        t = t.replaceAll("[^a-z0-9\\s]", " ");
+        String[] parts = t.split("\\s+");
+        List<String> out = new ArrayList<>();
+        for (String p : parts) {
+            p = p.trim();
+            if (p.isEmpty()) continue;
+            if (STOPWORDS.contains(p)) continue;
+            p = p.substring(0, naiveStem(p.toCharArray(), p.length()));
+            if (p.length() > 0) out.add(p);
+        }
+        return out;
+    }
+}
+
+// open-addressing String -> dense id table that can also be probed with a char[] span.
+// A dictionary is a view of the first size() ids of a store that only ever grows: extend() gives an
+// index update a new view to intern into, while views held by older snapshots never see the new ids.
+// Slots hold immutable entries and full tables/term arrays are replaced rather than resized, so
+// lookups through an older view are safe while a newer one interns.
+class TermDictionary {
+    private Store store;
+    private int size;
+
+    public TermDictionary() {
+        this(new Store(), 0);
+    }
+
+    private TermDictionary(Store store, int size) {
+        this.store = store;
+        this.size = size;
+    }
+
+    private static final class Store {
+        volatile Entry[] table = new Entry[64];
+        volatile String[] terms = new String[64];
+        int size; // ids assigned by any view
+    }
+
+    private static final class Entry {
+        final String term;
+        final int id;
+
+        Entry(String term, int id) {
+            this.term = term;
+            this.id = id;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // view with the same terms whose interns this one never sees, for copy-on-write updates of a published dictionary
+    public TermDictionary extend() {
+        return new TermDictionary(store, size);
+    }
+
+    public String term(int id) {
+        if (id >= size) throw new IndexOutOfBoundsException("term id " + id);
+        return store.terms[id];
+    }
+
+    public int get(String term) {
+        Entry[] t = store.table;
+        int mask = t.length - 1;
+        for (int slot = mix(term.hashCode()) & mask; t[slot] != null; slot = (slot + 1) & mask) {
+            if (t[slot].term.equals(term)) return visible(t[slot].id);
+        }
+        return -1;
+    }
+
+    public int get(char[] buf, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) h = 31 * h + buf[i]; // same as String.hashCode
+        Entry[] t = store.table;
+        int mask = t.length - 1;
+        for (int slot = mix(h) & mask; t[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(t[slot].term, buf, len)) return visible(t[slot].id);
+        }
+        return -1;
+    }
+
+    private int visible(int id) {
+        return id < size ? id : -1;
+    }
+
+    // id of term, assigning the next id if it is new
+    public int intern(String term) {
+        int id = get(term);
+        if (id >= 0) return id;
+        if (store.size != size) detach();
+        Store st = store;
+        if ((size + 1) * 2 > st.table.length) st.table = rehash(st.table, st.table.length * 2);
+        if (size == st.terms.length) st.terms = Arrays.copyOf(st.terms, size * 2);
+        id = size;
+        st.terms[id] = term;
+        place(st.table, new Entry(term, id));
+        st.size = ++size;
+        return id;
+    }
+
+    // another view interned past this one: continue in a private store holding this view's terms
+    private void detach() {
+        Store st = new Store();
+        st.terms = Arrays.copyOf(store.terms, Math.max(64, size * 2));
+        Entry[] t = new Entry[64];
+        while (size * 2 > t.length) t = new Entry[t.length * 2];
+        for (int id = 0; id < size; id++) place(t, new Entry(st.terms[id], id));
+        st.table = t;
+        st.size = size;
+        store = st;
+    }
+
+    private static Entry[] rehash(Entry[] table, int capacity) {
+        Entry[] t = new Entry[capacity];
+        for (Entry e : table) {
+            if (e != null) place(t, e);
+        }
+        return t;
+    }
+
+    private static void place(Entry[] table, Entry e) {
+        int mask = table.length - 1;
+        int slot = mix(e.term.hashCode()) & mask;
+        while (table[slot] != null) slot = (slot + 1) & mask;
+        table[slot] = e;
+    }
+
+    private static boolean matches(String key, char[] buf, int len) {
+        if (key.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (key.charAt(i) != buf[i]) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
     }
 }
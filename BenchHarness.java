@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.regex.Pattern;
+
+// Micro-benchmark harness behind the --bench mode of every project. It uses only the JDK and is compiled
+// next to the program (javac BenchHarness.java AIChatbotFull.java).
+//   - fork: run() starts the suite in bench.forks fresh JVMs (default 1; 0 runs it in this one), so
+//     JIT profiles and heap left over from the caller or an earlier fork do not skew the numbers
+//   - warm-up: bench.warmup unmeasured iterations (default 2), then bench.iterations measured ones
+//     (default 5); a benchmark's ops are split evenly over the measured iterations
+//   - dead code: every op hands its result to a Blackhole, so the JIT cannot drop the work
+//   - GC: a full collection before each benchmark, then the collections and pause time during it
+//   - allocation: bytes per op from the HotSpot thread allocation counter
+// bench.filter (a regex on benchmark names) runs a subset. Throughput is the mean over the measured
+// iterations, ± their standard deviation; latency percentiles cover every measured op.
+final class BenchHarness {
+    static final int FORKS = Integer.getInteger("bench.forks", 1);
+    static final int WARMUP = Integer.getInteger("bench.warmup", 2);
+    static final int ITERATIONS = Math.max(1, Integer.getInteger("bench.iterations", 5));
+    private static final Pattern FILTER = Pattern.compile(System.getProperty("bench.filter", ".*"));
+    private static final int FORK = Integer.getInteger("bench.fork", 0); // 1-based in a forked JVM
+
+    interface Suite {
+        void run() throws Exception;
+    }
+
+    interface Op {
+        void run(Blackhole bh);
+    }
+
+    interface ConcurrentOp {
+        void run(Random random, Blackhole bh);
+    }
+
+    // Consumes results the way JMH's does: the branches depend on volatile fields the JIT cannot
+    // predict, so every value handed in has to be computed, but they are never taken in practice.
+    static final class Blackhole {
+        private volatile long l1 = 1, l2 = 2;
+        private volatile double d1 = 1, d2 = 2;
+        private volatile int mask = 1;
+        private int seed = 1;
+        private Object kept;
+        private long keptLong;
+        private double keptDouble;
+
+        void consume(Object o) {
+            int m = mask;
+            if (((seed = seed * 1664525 + 1013904223) & m) == 0) {
+                kept = o; // rarely, and less often each time, so the store costs nothing on average
+                mask = (m << 1) + 1;
+            }
+        }
+
+        void consume(long v) {
+            if (v == l1 & v == l2) keptLong = v;
+        }
+
+        void consume(double v) {
+            if (v == d1 & v == d2) keptDouble = v;
+        }
+    }
+
+    private static final List<String[]> results = new ArrayList<>();
+
+    private BenchHarness() {
+    }
+
+    // runs suite in FORKS child JVMs (same class path, JVM flags and arguments), one after the other;
+    // in process when FORKS is 0 or this already is a fork
+    static void run(Class<?> mainClass, String[] args, Suite suite) throws Exception {
+        if (FORKS <= 0 || FORK > 0) {
+            suite.run();
+            return;
+        }
+        for (int fork = 1; fork <= FORKS; fork++) {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-Dbench.fork=" + fork);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass.getName());
+            command.addAll(Arrays.asList(args));
+            System.out.println("# fork " + fork + " of " + FORKS);
+            int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exit != 0) {
+                throw new IOException("Benchmark fork " + fork + " exited with status " + exit);
+            }
+        }
+    }
+
+    // ops calls of op, timed one by one after the warm-up iterations
+    static void measure(String name, int size, int ops, Op op) {
+        if (!FILTER.matcher(name).matches()) return;
+        int perIteration = Math.max(1, ops / ITERATIONS);
+        Blackhole bh = new Blackhole();
+        for (int w = 0; w < WARMUP; w++) {
+            for (int i = 0; i < perIteration; i++) op.run(bh);
+        }
+        long[] nanos = new long[perIteration * ITERATIONS];
+        double[] throughput = new double[ITERATIONS];
+        long bytes = 0;
+        long[] gc = beforeRun();
+        for (int it = 0; it < ITERATIONS; it++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = it * perIteration, end = i + perIteration; i < end; i++) {
+                long t0 = System.nanoTime();
+                op.run(bh);
+                nanos[i] = System.nanoTime() - t0;
+            }
+            throughput[it] = perIteration / ((System.nanoTime() - start) / 1e9);
+            bytes += allocatedBytes() - bytesBefore;
+        }
+        gc = gcSince(gc);
+        Arrays.sort(nanos);
+        record(name, size, throughput, allocatedBytes() < 0 ? -1 : bytes / nanos.length, nanos, gc);
+    }
+
+    // aggregate throughput of threads threads, each running opsPerThread ops with its own Random(thread)
+    static void measureConcurrent(String name, int size, int threads, int opsPerThread, ConcurrentOp op) {
+        if (!FILTER.matcher(name).matches()) return;
+        int perIteration = Math.max(1, opsPerThread / ITERATIONS);
+        int rounds = WARMUP + ITERATIONS;
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Blackhole bh = new Blackhole();
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        barrier.await();
+                        for (int i = 0; i < perIteration; i++) op.run(random, bh);
+                        barrier.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers[t].start();
+        }
+        double[] throughput = new double[ITERATIONS];
+        long[] gc = null;
+        try {
+            for (int round = 0; round < rounds; round++) {
+                if (round == WARMUP) gc = beforeRun();
+                barrier.await();
+                long start = System.nanoTime();
+                barrier.await();
+                if (round >= WARMUP) throughput[round - WARMUP] = (long) threads * perIteration / ((System.nanoTime() - start) / 1e9);
+            }
+            for (Thread worker : workers) worker.join();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+            for (Thread worker : workers) worker.interrupt();
+            return;
+        }
+        record(name, size, throughput, -1, null, gcSince(gc));
+    }
+
+    private static void record(String name, int size, double[] throughput, long bytesPerOp, long[] sortedNanos, long[] gc) {
+        double mean = 0;
+        for (double t : throughput) mean += t / throughput.length;
+        double variance = 0;
+        for (double t : throughput) variance += (t - mean) * (t - mean) / Math.max(1, throughput.length - 1);
+        double errorPct = mean > 0 ? 100 * Math.sqrt(variance) / mean : 0;
+        String[] row = {
+            name, Integer.toString(size), String.format("%.1f", mean), String.format("%.1f", errorPct),
+            bytesPerOp < 0 ? "n/a" : Long.toString(bytesPerOp),
+            sortedNanos == null ? "n/a" : String.format("%.2f", percentile(sortedNanos, 0.5) / 1e3),
+            sortedNanos == null ? "n/a" : String.format("%.2f", percentile(sortedNanos, 0.99) / 1e3),
+            sortedNanos == null ? "n/a" : String.format("%.2f", percentile(sortedNanos, 0.999) / 1e3),
+            Long.toString(gc[0]), Long.toString(gc[1]), Integer.toString(Math.max(1, FORK))
+        };
+        results.add(row);
+        System.out.printf("  %-22s %8s %12s ops/s +-%5s%% %8s B/op  p50 %9s us  p99 %9s us  p99.9 %9s us  gc %s (%s ms)%n",
+                row[0], row[1], row[2], row[3], row[4], row[5], row[6], row[7], row[8], row[9]);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    // { collections, pause millis } so far, after a full collection so the run starts from a clean heap
+    private static long[] beforeRun() {
+        System.gc();
+        return gcTotals();
+    }
+
+    private static long[] gcSince(long[] before) {
+        long[] now = gcTotals();
+        return new long[] { now[0] - before[0], now[1] - before[1] };
+    }
+
+    private static long[] gcTotals() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+
+    // -1 when the JVM does not expose per-thread allocation counters
+    private static long allocatedBytes() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // results as CSV (the first fork writes the header, later forks append), then the throughput
+    // change against baseline, averaged over its forks, when that file exists
+    static void report(Path out, Path baseline) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (FORK <= 1) lines.add("benchmark,size,ops_per_sec,error_pct,bytes_per_op,p50_us,p99_us,p999_us,gc_count,gc_ms,fork");
+        for (String[] r : results) lines.add(String.join(",", r));
+        if (FORK <= 1) {
+            Files.write(out, lines, StandardCharsets.UTF_8);
+        } else {
+            Files.write(out, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        System.out.println("Results written to " + out);
+        if (!Files.exists(baseline)) return;
+
+        Map<String, double[]> base = new HashMap<>(); // key -> { sum, count }
+        for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+            String[] f = line.split(",");
+            if (f.length < 3 || f[0].equals("benchmark")) continue;
+            double[] s = base.computeIfAbsent(f[0] + "@" + f[1], k -> new double[2]);
+            s[0] += Double.parseDouble(f[2]);
+            s[1]++;
+        }
+        System.out.println("Throughput vs " + baseline + ":");
+        for (String[] r : results) {
+            double[] s = base.get(r[0] + "@" + r[1]);
+            if (s != null && s[0] > 0) {
+                double b = s[0] / s[1];
+                System.out.printf("  %-22s %8s  %+7.1f%%%n", r[0], r[1], 100.0 * (Double.parseDouble(r[2]) - b) / b);
+            }
+        }
+    }
+}
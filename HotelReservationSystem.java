@@ -1,5 +1,40 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 class User {
     private String name;
@@ -29,7 +64,8 @@ class Room {
     private String roomNumber;
     private String roomType;
     private double price;
-    private boolean isAvailable;
+    private volatile boolean isAvailable;
+    private int index = -1; // position in the owning hotel's calendar bitsets
 
     public Room(String roomNumber, String roomType, double price) {
         this.roomNumber = roomNumber;
@@ -57,58 +93,1580 @@ class Room {
     public void setAvailable(boolean available) {
         this.isAvailable = available;
     }
+
+    int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+}
+
+// Per-night occupancy: one bitset over room indexes for every epoch day that has a booking.
+// "Which rooms are free from D1 to D2" ORs the nights of the stay (rooms/64 words each) and
+// complements, instead of walking every room and every booking.
+//
+// Concurrency: searches never lock. Bookings of one room serialize on that room's lock
+// stripe and set their bits with CAS, so bookings of different rooms run in parallel even
+// when they share a bitset word. Growing the calendar (a new night, more rooms) publishes a
+// new Span; a writer that raced with it redoes its bit updates on the new one.
+class RoomCalendar {
+    private static final int STRIPES = 1024;
+    // bound the nights a booking can make the calendar allocate
+    static final int MAX_STAY_NIGHTS = Integer.getInteger("hotel.maxStayNights", 366);
+    static final int BOOKING_HORIZON_DAYS = Integer.getInteger("hotel.bookingHorizonDays", 3660); // either side of today
+
+    private static final class Span {
+        final long firstDay;
+        final AtomicLongArray[] nights; // nights[day - firstDay]; null while nothing is booked that night
+        final int words;                // width of every night bitset
+
+        Span(long firstDay, AtomicLongArray[] nights, int words) {
+            this.firstDay = firstDay;
+            this.nights = nights;
+            this.words = words;
+        }
+
+        AtomicLongArray night(long day) {
+            long i = day - firstDay;
+            return i < 0 || i >= nights.length ? null : nights[(int) i];
+        }
+    }
+
+    private volatile Span span = new Span(0, new AtomicLongArray[0], 1);
+    private volatile int roomCount;
+    private volatile boolean widening; // addRoom is copying every night into wider bitsets
+    private final Object growLock = new Object();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    RoomCalendar() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+    }
+
+    static long epochDay(String date) {
+        try {
+            return LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date (expected yyyy-MM-dd): " + date);
+        }
+    }
+
+    // for bookings: the dates are in order and within both limits
+    static void checkStay(long fromDay, long toDay) {
+        checkOrder(fromDay, toDay);
+        if (toDay - fromDay > MAX_STAY_NIGHTS) {
+            throw new IllegalArgumentException("Stays are limited to " + MAX_STAY_NIGHTS + " nights");
+        }
+        if (!withinHorizon(fromDay, toDay)) {
+            throw new IllegalArgumentException("Stays must be within " + BOOKING_HORIZON_DAYS + " days of today");
+        }
+    }
+
+    static void checkOrder(long fromDay, long toDay) {
+        if (toDay <= fromDay) {
+            throw new IllegalArgumentException("Check-out must be after check-in");
+        }
+    }
+
+    // true when the stay lies within the horizon; searches outside it find nothing, since nothing
+    // can be booked there
+    static boolean withinHorizon(long fromDay, long toDay) {
+        long today = LocalDate.now().toEpochDay();
+        return fromDay >= today - BOOKING_HORIZON_DAYS && toDay <= today + BOOKING_HORIZON_DAYS;
+    }
+
+    int addRoom() {
+        synchronized (growLock) {
+            int room = roomCount;
+            Span s = span;
+            if (room >>> 6 >= s.words) {
+                widening = true; // writers racing with the copy below wait for it and redo their bits
+                int words = s.words * 2;
+                AtomicLongArray[] nights = new AtomicLongArray[s.nights.length];
+                for (int i = 0; i < nights.length; i++) nights[i] = widen(s.nights[i], words);
+                span = new Span(s.firstDay, nights, words);
+                widening = false;
+            }
+            roomCount = room + 1;
+            return room;
+        }
+    }
+
+    int roomCount() {
+        return roomCount;
+    }
+
+    // nights are half-open: a stay from checkIn to checkOut occupies [checkIn, checkOut)
+    boolean isFree(int room, long from, long to) {
+        return isFree(span, room, from, to);
+    }
+
+    // atomically books every night of the stay, or none when one of them is taken
+    boolean tryOccupy(int room, long from, long to) {
+        ReentrantLock lock = stripes[room & (STRIPES - 1)];
+        lock.lock();
+        try {
+            if (!isFree(span, room, from, to)) return false;
+            occupyLocked(room, from, to);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // books stay i of room rooms[i] for every i, or nothing when any of them is taken (also by an
+    // earlier stay of the same batch); the stripes involved are locked once each, in ascending order
+    boolean tryOccupyAll(int[] rooms, long[] from, long[] to) {
+        int[] order = new int[rooms.length];
+        for (int i = 0; i < rooms.length; i++) order[i] = rooms[i] & (STRIPES - 1);
+        Arrays.sort(order);
+        int locked = 0;
+        try {
+            for (int i = 0; i < order.length; i++) {
+                if (i > 0 && order[i] == order[i - 1]) continue;
+                stripes[order[i]].lock();
+                order[locked++] = order[i];
+            }
+            for (int i = 0; i < rooms.length; i++) {
+                if (!isFree(span, rooms[i], from[i], to[i])) {
+                    for (int j = 0; j < i; j++) releaseLocked(rooms[j], from[j], to[j]);
+                    return false;
+                }
+                occupyLocked(rooms[i], from[i], to[i]);
+            }
+            return true;
+        } finally {
+            while (locked > 0) stripes[order[--locked]].unlock();
+        }
+    }
+
+    void release(int room, long from, long to) {
+        ReentrantLock lock = stripes[room & (STRIPES - 1)];
+        lock.lock();
+        try {
+            releaseLocked(room, from, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void occupyLocked(int room, long from, long to) {
+        int word = room >>> 6;
+        long bit = 1L << room;
+        Span s;
+        do {
+            s = writable(from, to);
+            for (long day = from; day < to; day++) {
+                AtomicLongArray bits = s.night(day);
+                long v;
+                do {
+                    v = bits.get(word);
+                } while (!bits.compareAndSet(word, v, v | bit));
+            }
+        } while (!settled(s));
+    }
+
+    private void releaseLocked(int room, long from, long to) {
+        int word = room >>> 6;
+        long bit = 1L << room;
+        Span s;
+        do {
+            s = span;
+            for (long day = from; day < to; day++) {
+                AtomicLongArray bits = s.night(day);
+                if (bits == null) continue;
+                long v;
+                do {
+                    v = bits.get(word);
+                } while ((v & bit) != 0 && !bits.compareAndSet(word, v, v & ~bit));
+            }
+        } while (!settled(s));
+    }
+
+    // true when bits just written to s are in the published span: s is still current and no widening
+    // copy (which may have read the words before the write) is in progress
+    private boolean settled(Span s) {
+        if (widening) {
+            synchronized (growLock) {
+                // wait for the copy to be published, then redo the write on it
+            }
+            return false;
+        }
+        return s == span;
+    }
+
+    // bitset of the rooms that are free on every night of [from, to)
+    long[] free(long from, long to) {
+        int count = roomCount; // read before the span so the span is at least this wide
+        Span s = span;
+        int words = (count + 63) >>> 6;
+        long[] busy = new long[words];
+        for (long day = from; day < to; day++) {
+            AtomicLongArray bits = s.night(day);
+            if (bits == null) continue;
+            for (int w = 0; w < words; w++) busy[w] |= bits.get(w);
+        }
+        for (int w = 0; w < words; w++) busy[w] = ~busy[w];
+        if ((count & 63) != 0) busy[words - 1] &= (1L << count) - 1;
+        return busy;
+    }
+
+    private static boolean isFree(Span s, int room, long from, long to) {
+        int word = room >>> 6;
+        for (long day = from; day < to; day++) {
+            AtomicLongArray bits = s.night(day);
+            if (bits != null && (bits.get(word) & 1L << room) != 0) return false;
+        }
+        return true;
+    }
+
+    // a span with a bitset for every night of [from, to), growing the calendar if needed
+    private Span writable(long from, long to) {
+        Span s = span;
+        if (covers(s, from, to)) return s;
+        synchronized (growLock) {
+            s = span;
+            if (covers(s, from, to)) return s;
+            long first = s.firstDay, end = s.firstDay + s.nights.length;
+            if (s.nights.length == 0) {
+                first = from;
+                end = from + Math.max(64, to - from);
+            } else {
+                // keep slack on both ends so the next bookings rarely have to grow again
+                if (from < first) first = Math.min(from, first - s.nights.length / 2);
+                if (to > end) end = Math.max(to, end + s.nights.length);
+            }
+            AtomicLongArray[] nights = new AtomicLongArray[(int) (end - first)];
+            if (s.nights.length > 0) System.arraycopy(s.nights, 0, nights, (int) (s.firstDay - first), s.nights.length);
+            for (long day = from; day < to; day++) {
+                int i = (int) (day - first);
+                if (nights[i] == null) nights[i] = new AtomicLongArray(s.words);
+            }
+            span = s = new Span(first, nights, s.words);
+            return s;
+        }
+    }
+
+    private static boolean covers(Span s, long from, long to) {
+        for (long day = from; day < to; day++) {
+            if (s.night(day) == null) return false;
+        }
+        return true;
+    }
+
+    private static AtomicLongArray widen(AtomicLongArray bits, int words) {
+        if (bits == null) return null;
+        AtomicLongArray wider = new AtomicLongArray(words);
+        for (int w = 0; w < bits.length(); w++) wider.set(w, bits.get(w));
+        return wider;
+    }
+}
+
+// Secondary indexes over a hotel's rooms, built once and then shared read-only by searches:
+// room types are dictionary-encoded to small ids with one bitset of room indexes per type,
+// and prices are kept sorted so a price range is two binary searches. Both produce bitsets
+// in the same room-index space as RoomCalendar, so a filtered search is a word-wise AND.
+class RoomIndex {
+    private final int size;                    // rooms [0, size) are covered
+    private final Map<String, Integer> typeIds; // normalized type name -> id
+    private final long[][] typeBits;           // typeBits[id]: rooms of that type
+    private final double[] prices;             // ascending
+    private final int[] byPrice;               // room index for each entry of prices
+
+    RoomIndex(Room[] rooms, int size) {
+        this.size = size;
+        typeIds = new HashMap<>();
+        List<long[]> bits = new ArrayList<>();
+        int words = (size + 63) >>> 6;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            String type = normalize(rooms[i].getRoomType());
+            Integer id = typeIds.get(type);
+            if (id == null) {
+                id = bits.size();
+                typeIds.put(type, id);
+                bits.add(new long[words]);
+            }
+            bits.get(id)[i >>> 6] |= 1L << i;
+            order[i] = i;
+        }
+        typeBits = bits.toArray(new long[0][]);
+        Arrays.sort(order, Comparator.comparingDouble(i -> rooms[i].getPrice()));
+        prices = new double[size];
+        byPrice = new int[size];
+        for (int i = 0; i < size; i++) {
+            byPrice[i] = order[i];
+            prices[i] = rooms[order[i]].getPrice();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // rooms of the given type, or null when no room has it
+    long[] type(String roomType) {
+        Integer id = typeIds.get(normalize(roomType));
+        return id == null ? null : typeBits[id];
+    }
+
+    // clears every bit of `rooms` whose price is outside [minPrice, maxPrice]
+    void retainPriceRange(long[] rooms, double minPrice, double maxPrice) {
+        int lo = lowerBound(minPrice), hi = upperBound(maxPrice);
+        long[] inRange = new long[rooms.length];
+        for (int i = lo; i < hi; i++) {
+            int room = byPrice[i];
+            if (room >>> 6 < inRange.length) inRange[room >>> 6] |= 1L << room;
+        }
+        for (int w = 0; w < rooms.length; w++) rooms[w] &= inRange[w];
+    }
+
+    // first entry with price >= p
+    private int lowerBound(double p) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prices[mid] < p) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // first entry with price > p
+    private int upperBound(double p) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prices[mid] <= p) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static String normalize(String roomType) {
+        return roomType.trim().toLowerCase(Locale.ROOT);
+    }
 }
 
-class Hotel {
-    private String name;
-    private List<Room> rooms;
+// One room of a group booking: any room of roomType (null: any type) free for the stay.
+class BookingRequest {
+    private final User guest;
+    private final String roomType;
+    private final long checkInDay;
+    private final long checkOutDay;
+    private final double cancellationFee;
+
+    public BookingRequest(User guest, String roomType, String checkIn, String checkOut, double cancellationFee) {
+        this.guest = guest;
+        this.roomType = roomType;
+        this.checkInDay = RoomCalendar.epochDay(checkIn);
+        this.checkOutDay = RoomCalendar.epochDay(checkOut);
+        this.cancellationFee = cancellationFee;
+        RoomCalendar.checkStay(checkInDay, checkOutDay);
+    }
+
+    public User getGuest() {
+        return guest;
+    }
+
+    public String getRoomType() {
+        return roomType;
+    }
+
+    public long getCheckInDay() {
+        return checkInDay;
+    }
+
+    public long getCheckOutDay() {
+        return checkOutDay;
+    }
+
+    public double getCancellationFee() {
+        return cancellationFee;
+    }
+
+    // requests with the same key can be served from one candidate bitset
+    String key() {
+        return (roomType == null ? "" : roomType.trim().toLowerCase(Locale.ROOT)) + "|" + checkInDay + "|" + checkOutDay;
+    }
+}
+
+class Hotel {
+    private String name;
+    private volatile Room[] rooms = new Room[16]; // rooms[i].getIndex() == i; grown under addRoom
+    private final RoomCalendar calendar;
+    private volatile RoomIndex index = new RoomIndex(new Room[0], 0); // rebuilt on the first search after rooms are added
+    private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>(); // live (not cancelled) by id
+    private volatile HotelJournal journal; // null: state lives in memory only
+    private volatile NotificationOutbox notifications;
+    private final Object compactLock = new Object();
+    // changes to rooms and reservations hold the read lock until their record is appended; compaction
+    // holds the write lock while it rotates the journal and captures the state
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    public Hotel(String name) {
+        this(name, new RoomCalendar());
+    }
+
+    // tests substitute a calendar that loses races on purpose
+    Hotel(String name, RoomCalendar calendar) {
+        this.name = name;
+        this.calendar = calendar;
+    }
+
+    public void addRoom(Room room) {
+        HotelJournal j = journal;
+        long seq = 0;
+        stateLock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (room.getIndex() >= 0) {
+                    throw new IllegalArgumentException("Room " + room.getRoomNumber() + " already belongs to a hotel");
+                }
+                int index = calendar.roomCount();
+                if (j != null) {
+                    seq = j.roomAdded(index, room); // first, so a failed journal rejects the room before it is added
+                }
+                if (index == rooms.length) rooms = Arrays.copyOf(rooms, index * 2);
+                rooms[index] = room;
+                room.setIndex(index);
+                calendar.addRoom(); // publishes the room to searches
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (seq != 0) {
+            awaitDurable(j, seq);
+        }
+    }
+
+    public int roomCount() {
+        return calendar.roomCount();
+    }
+
+    public Reservation getReservation(String reservationId) {
+        return reservations.get(ReservationIdGenerator.parse(reservationId));
+    }
+
+    // rooms that are in service and not booked on any night between checkIn and checkOut
+    public List<Room> findAvailableRooms(String checkIn, String checkOut) {
+        return findAvailableRooms(RoomCalendar.epochDay(checkIn), RoomCalendar.epochDay(checkOut));
+    }
+
+    // a lock-free snapshot: a room in the result can still be taken before reserve() is called
+    public List<Room> findAvailableRooms(long fromDay, long toDay) {
+        RoomCalendar.checkOrder(fromDay, toDay);
+        if (!RoomCalendar.withinHorizon(fromDay, toDay)) {
+            return new ArrayList<>();
+        }
+        return collect(calendar.free(fromDay, toDay));
+    }
+
+    // e.g. findAvailableRooms("2024-09-06", "2024-09-08", "Deluxe", 0, 120); roomType null matches any type
+    public List<Room> findAvailableRooms(String checkIn, String checkOut, String roomType, double minPrice, double maxPrice) {
+        return findAvailableRooms(RoomCalendar.epochDay(checkIn), RoomCalendar.epochDay(checkOut), roomType, minPrice, maxPrice);
+    }
+
+    public List<Room> findAvailableRooms(long fromDay, long toDay, String roomType, double minPrice, double maxPrice) {
+        RoomCalendar.checkOrder(fromDay, toDay);
+        if (!RoomCalendar.withinHorizon(fromDay, toDay)) {
+            return new ArrayList<>();
+        }
+        RoomIndex idx = index();
+        long[] free = calendar.free(fromDay, toDay);
+        // rooms added after the index snapshot are not in it; they show up from the next search on
+        int words = Math.min(free.length, (idx.size() + 63) >>> 6);
+        if (roomType != null) {
+            long[] ofType = idx.type(roomType);
+            if (ofType == null) {
+                return new ArrayList<>();
+            }
+            for (int w = 0; w < words; w++) free[w] &= ofType[w];
+        }
+        if (words < free.length) free = Arrays.copyOf(free, words);
+        if (minPrice > Double.NEGATIVE_INFINITY || maxPrice < Double.POSITIVE_INFINITY) {
+            idx.retainPriceRange(free, minPrice, maxPrice);
+        }
+        return collect(free);
+    }
+
+    private List<Room> collect(long[] free) {
+        Room[] table = rooms;
+        List<Room> availableRooms = new ArrayList<>();
+        for (int w = 0; w < free.length; w++) {
+            for (long bits = free[w]; bits != 0; bits &= bits - 1) {
+                Room room = table[w << 6 | Long.numberOfTrailingZeros(bits)];
+                if (room.isAvailable()) {
+                    availableRooms.add(room);
+                }
+            }
+        }
+        return availableRooms;
+    }
+
+    private RoomIndex index() {
+        RoomIndex idx = index;
+        if (idx.size() == calendar.roomCount()) {
+            return idx;
+        }
+        synchronized (this) {
+            idx = index;
+            int count = calendar.roomCount();
+            if (idx.size() != count) {
+                index = idx = new RoomIndex(rooms, count);
+            }
+            return idx;
+        }
+    }
+
+    public boolean isRoomFree(Room room, String checkIn, String checkOut) {
+        long from = RoomCalendar.epochDay(checkIn), to = RoomCalendar.epochDay(checkOut);
+        RoomCalendar.checkOrder(from, to);
+        return RoomCalendar.withinHorizon(from, to) && room.isAvailable() && calendar.isFree(indexOf(room), from, to);
+    }
+
+    // holds the room for the stay, or returns null when any of its nights is already taken;
+    // the reservation starts HELD and is settled with confirmReservation() or cancelReservation(r)
+    public Reservation reserve(User guest, Room room, String checkIn, String checkOut, double cancellationFee) {
+        Reservation reservation = new Reservation(guest, checkIn, checkOut, room, cancellationFee);
+        long from = reservation.getCheckInDay(), to = reservation.getCheckOutDay();
+        RoomCalendar.checkStay(from, to);
+        HotelJournal j = journal;
+        long seq = 0;
+        stateLock.readLock().lock();
+        try {
+            int index = indexOf(room);
+            if (!room.isAvailable() || !calendar.tryOccupy(index, from, to)) {
+                return null;
+            }
+            if (j != null) {
+                try {
+                    seq = j.reservationCreated(reservation);
+                } catch (IllegalStateException e) {
+                    calendar.release(index, from, to); // the journal has failed
+                    throw e;
+                }
+            }
+            reservation.setHotel(this);
+            reservations.put(reservation.getId(), reservation);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (seq != 0) {
+            awaitDurableOrDiscard(j, seq, Collections.singletonList(reservation));
+        }
+        return reservation;
+    }
+
+    // cancels a held or confirmed reservation and frees its nights; false if it was already cancelled.
+    // With a journal the nights are freed only once the cancellation is durable, so a later booking
+    // of them always replays after it, and a cancellation that fails can be undone by restoring the
+    // status alone.
+    public boolean cancelReservation(Reservation reservation) {
+        HotelJournal j = journal;
+        Reservation.Status previous;
+        long seq = 0;
+        stateLock.readLock().lock();
+        try {
+            previous = reservation.cancelReservation();
+            if (previous == null) {
+                return false;
+            }
+            if (j == null) {
+                free(reservation);
+            } else {
+                try {
+                    seq = j.statusChanged(HotelJournal.RESERVATION_CANCELLED, reservation.getId());
+                } catch (IllegalStateException e) {
+                    reservation.revert(Reservation.Status.CANCELLED, previous); // the journal has failed
+                    throw e;
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (seq != 0) {
+            try {
+                awaitDurable(j, seq);
+            } catch (IllegalStateException e) {
+                reservation.revert(Reservation.Status.CANCELLED, previous);
+                throw e;
+            }
+            stateLock.readLock().lock();
+            try {
+                free(reservation);
+            } finally {
+                stateLock.readLock().unlock();
+            }
+        }
+        // the fee applies to confirmed bookings; an unconfirmed hold is released free of charge
+        publish(new Notification(Notification.Kind.CANCELLATION, reservation,
+                previous == Reservation.Status.CONFIRMED ? reservation.getCancellationFee() : 0));
+        return true;
+    }
+
+    // books every request or none: null when the hotel cannot hold the whole group. Candidates come
+    // from one availability/type bitset per distinct (type, stay) in the batch, rooms are assigned
+    // greedily in request order, and the chosen rooms are then booked under one ordered acquisition
+    // of their lock stripes. A room taken concurrently between planning and booking causes a replan,
+    // as often as it takes: every lost race means another booking went through, and null is only
+    // returned once a plan finds no room for some request.
+    public List<Reservation> reserveGroup(List<BookingRequest> requests) {
+        if (requests.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int n = requests.size();
+        long[] from = new long[n], to = new long[n];
+        for (int i = 0; i < n; i++) {
+            from[i] = requests.get(i).getCheckInDay();
+            to[i] = requests.get(i).getCheckOutDay();
+        }
+        while (true) {
+            int[] plan = planGroup(requests);
+            if (plan == null) {
+                return null;
+            }
+            HotelJournal j = journal;
+            List<Reservation> booked = new ArrayList<>(n);
+            long seq = 0;
+            stateLock.readLock().lock();
+            try {
+                if (!calendar.tryOccupyAll(plan, from, to)) {
+                    continue;
+                }
+                Room[] table = rooms;
+                for (int i = 0; i < n; i++) {
+                    BookingRequest q = requests.get(i);
+                    booked.add(new Reservation(ReservationIdGenerator.DEFAULT.next(), q.getGuest(), from[i], to[i], table[plan[i]],
+                            q.getCancellationFee()));
+                }
+                if (j != null) {
+                    try {
+                        seq = j.reservationsCreated(booked); // one record, so a crash keeps all or none
+                    } catch (IllegalStateException e) {
+                        for (int i = 0; i < n; i++) calendar.release(plan[i], from[i], to[i]); // the journal has failed
+                        throw e;
+                    }
+                }
+                for (Reservation r : booked) {
+                    r.setHotel(this);
+                    reservations.put(r.getId(), r);
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            if (seq != 0) {
+                awaitDurableOrDiscard(j, seq, booked);
+            }
+            return booked;
+        }
+    }
+
+    // room index per request, or null when some request has no free room left
+    private int[] planGroup(List<BookingRequest> requests) {
+        RoomIndex idx = index();
+        Room[] table = rooms;
+        Map<String, long[]> candidates = new HashMap<>();
+        Map<Integer, List<BookingRequest>> claimed = new HashMap<>(); // rooms already given to the batch
+        int[] plan = new int[requests.size()];
+        for (int i = 0; i < plan.length; i++) {
+            BookingRequest q = requests.get(i);
+            long[] free = candidates.get(q.key());
+            if (free == null) {
+                free = calendar.free(q.getCheckInDay(), q.getCheckOutDay());
+                int words = Math.min(free.length, (idx.size() + 63) >>> 6);
+                if (words < free.length) free = Arrays.copyOf(free, words);
+                if (q.getRoomType() != null) {
+                    long[] ofType = idx.type(q.getRoomType());
+                    for (int w = 0; w < free.length; w++) free[w] = ofType == null ? 0 : free[w] & ofType[w];
+                }
+                candidates.put(q.key(), free);
+            }
+            plan[i] = -1;
+            for (int w = 0; w < free.length && plan[i] < 0; w++) {
+                for (long bits = free[w]; bits != 0; bits &= bits - 1) {
+                    int room = w << 6 | Long.numberOfTrailingZeros(bits);
+                    free[w] &= ~(1L << room); // used or unusable either way for this (type, stay)
+                    if (table[room].isAvailable() && !overlapsClaim(claimed.get(room), q)) {
+                        plan[i] = room;
+                        claimed.computeIfAbsent(room, k -> new ArrayList<>()).add(q);
+                        break;
+                    }
+                }
+            }
+            if (plan[i] < 0) {
+                return null;
+            }
+        }
+        return plan;
+    }
+
+    private static boolean overlapsClaim(List<BookingRequest> claims, BookingRequest q) {
+        if (claims == null) return false;
+        for (BookingRequest c : claims) {
+            if (c.getCheckInDay() < q.getCheckOutDay() && q.getCheckInDay() < c.getCheckOutDay()) return true;
+        }
+        return false;
+    }
+
+    private void free(Reservation reservation) {
+        reservations.remove(reservation.getId());
+        calendar.release(indexOf(reservation.getRoom()), reservation.getCheckInDay(), reservation.getCheckOutDay());
+    }
+
+    // HELD -> CONFIRMED for Reservation.confirmReservation(): the transition and its record happen
+    // under the state lock, and the transition is undone when the record cannot be made durable
+    boolean confirm(Reservation reservation) {
+        HotelJournal j = journal;
+        long seq = 0;
+        stateLock.readLock().lock();
+        try {
+            if (!reservation.markConfirmed()) {
+                return false;
+            }
+            if (j != null) {
+                try {
+                    seq = j.statusChanged(HotelJournal.RESERVATION_CONFIRMED, reservation.getId());
+                } catch (IllegalStateException e) {
+                    reservation.revert(Reservation.Status.CONFIRMED, Reservation.Status.HELD); // the journal has failed
+                    throw e;
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (seq != 0) {
+            try {
+                awaitDurable(j, seq);
+            } catch (IllegalStateException e) {
+                reservation.revert(Reservation.Status.CONFIRMED, Reservation.Status.HELD);
+                throw e;
+            }
+        }
+        publish(new Notification(Notification.Kind.CONFIRMATION, reservation, 0));
+        return true;
+    }
+
+    // guests are notified through the outbox, never inline on the booking path; null: no notifications
+    public void setNotifications(NotificationOutbox outbox) {
+        this.notifications = outbox;
+    }
+
+    // queued only once the change is durable, so a guest never hears about a booking a crash could lose
+    private void publish(Notification n) {
+        NotificationOutbox outbox = notifications;
+        if (outbox != null) {
+            outbox.publish(n);
+        }
+    }
+
+    // restore rooms and reservations from the snapshot and journal, then log every change to them;
+    // must be called before any room is added
+    public void openJournal(String snapshotFile, String journalBase) throws IOException {
+        openJournal(snapshotFile, journalBase, HotelJournal.APPEND);
+    }
+
+    void openJournal(String snapshotFile, String journalBase, HotelJournal.SegmentOpener opener) throws IOException {
+        synchronized (this) {
+            if (journal != null || calendar.roomCount() > 0) {
+                throw new IllegalStateException("openJournal must be called once, on a hotel without rooms");
+            }
+        }
+        HotelJournal j = HotelJournal.open(Paths.get(snapshotFile), Paths.get(journalBase), new HotelJournal.Replayer() {
+            public void roomAdded(int index, String roomNumber, String roomType, double price) {
+                if (index < calendar.roomCount()) return; // already in the snapshot
+                if (index > calendar.roomCount()) throw new IllegalStateException("Journal is missing room " + calendar.roomCount());
+                addRoom(new Room(roomNumber, roomType, price));
+            }
+
+            public void reservationCreated(long id, int room, long checkInDay, long checkOutDay, User guest, double cancellationFee) {
+                if (reservations.containsKey(id)) return;
+                Reservation r = new Reservation(id, guest, checkInDay, checkOutDay, rooms[room], cancellationFee);
+                if (!calendar.tryOccupy(room, checkInDay, checkOutDay)) {
+                    throw new IllegalStateException("Journal books room " + rooms[room].getRoomNumber() + " twice on "
+                            + r.getCheckIn() + " (reservation " + r.getReservationId() + ")");
+                }
+                r.setHotel(Hotel.this);
+                reservations.put(id, r);
+            }
+
+            public void reservationConfirmed(long id) {
+                Reservation r = reservations.get(id);
+                if (r != null) r.markConfirmed();
+            }
+
+            public void reservationCancelled(long id) {
+                Reservation r = reservations.remove(id);
+                if (r != null && r.cancelReservation() != null) {
+                    calendar.release(r.getRoom().getIndex(), r.getCheckInDay(), r.getCheckOutDay());
+                }
+            }
+        }, opener);
+        journal = j;
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hotel-journal");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, 30, 30, TimeUnit.SECONDS);
+    }
+
+    // snapshot the current state and drop the journal segments it covers. Changes are held off only
+    // while the journal rotates and the state is copied, so the snapshot is exactly what the segments
+    // before the rotation replay to; bookings continue while it is written.
+    public void compactJournal() throws IOException {
+        synchronized (compactLock) {
+            HotelJournal j = journal;
+            if (j == null) return;
+            long segment;
+            List<Reservation> live = new ArrayList<>();
+            BitSet confirmed = new BitSet();
+            Room[] table;
+            int count;
+            stateLock.writeLock().lock();
+            try {
+                segment = j.rotate(); // events from here on land in the new segment
+                for (Reservation r : reservations.values()) {
+                    Reservation.Status status = r.getStatus();
+                    if (status == Reservation.Status.CANCELLED) continue; // durable by now, its nights about to be freed
+                    if (status == Reservation.Status.CONFIRMED) confirmed.set(live.size());
+                    live.add(r);
+                }
+                table = rooms;
+                count = calendar.roomCount();
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            j.writeSnapshot(table, count, live, confirmed, segment);
+        }
+    }
+
+    private void compactIfNeeded() {
+        HotelJournal j = journal;
+        if (j == null || !j.needsCompaction()) return;
+        try {
+            compactJournal();
+        } catch (IOException e) {
+            System.err.println("Error compacting hotel journal: " + e.getMessage());
+        }
+    }
+
+    // as awaitDurable, but a booking that cannot be made durable is undone before the failure is
+    // thrown, so memory never keeps a booking a restart would lose. The journal has failed by then
+    // and writes nothing more. A record that reached disk whole despite the error is still replayed
+    // by the next open (a torn one is truncated), so to callers the exception means "unknown".
+    private void awaitDurableOrDiscard(HotelJournal j, long seq, List<Reservation> booked) {
+        try {
+            awaitDurable(j, seq);
+        } catch (IllegalStateException e) {
+            stateLock.readLock().lock();
+            try {
+                for (Reservation r : booked) {
+                    if (r.cancelReservation() == null) continue;
+                    reservations.remove(r.getId());
+                    calendar.release(indexOf(r.getRoom()), r.getCheckInDay(), r.getCheckOutDay());
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            throw e;
+        }
+    }
+
+    // returns once the event is on disk; concurrent bookings share one write + force
+    private static void awaitDurable(HotelJournal j, long seq) {
+        try {
+            j.awaitDurable(seq);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write hotel journal", e);
+        }
+    }
+
+    private int indexOf(Room room) {
+        int index = room.getIndex();
+        Room[] table = rooms;
+        if (index < 0 || index >= table.length || table[index] != room) {
+            throw new IllegalArgumentException("Room " + room.getRoomNumber() + " does not belong to " + name);
+        }
+        return index;
+    }
+}
+
+// Reservation ids: 41 bits of milliseconds since 2024-01-01, 10 bits of node id, 12 bits of
+// sequence, packed into a positive long and shown as "R" + 13 Crockford base-32 digits (fixed
+// width, so ids sort as strings in the order they were issued).
+//
+// next() is a CAS on the last issued (millis, sequence) pair. When the clock stalls, goes
+// backwards, or 4096 ids are used within one millisecond, it keeps counting from the last id
+// instead of waiting, so ids stay unique and increasing. To survive restarts, ids are only
+// issued below a lease written to disk ahead of time; a new process starts after the lease.
+class ReservationIdGenerator {
+    private static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long LEASE_MILLIS = 10000;
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    static final ReservationIdGenerator DEFAULT = new ReservationIdGenerator(Integer.getInteger("hotel.nodeId", 0),
+            System.getProperty("hotel.idLease", "reservation-ids.lease"));
+
+    private final long node;
+    private final Path leaseFile; // null: ids are only unique within this process
+    private final AtomicLong last; // millis << SEQUENCE_BITS | sequence of the last issued id
+    private volatile long leaseEnd; // millis (since EPOCH_MILLIS) at which a new lease must be written
+
+    ReservationIdGenerator(int node, String leaseFile) {
+        if (node < 0 || node >= 1 << NODE_BITS) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + ((1 << NODE_BITS) - 1));
+        }
+        this.node = node;
+        this.leaseFile = leaseFile == null || leaseFile.isEmpty() ? null : Paths.get(leaseFile);
+        long start = 0;
+        if (this.leaseFile != null && Files.exists(this.leaseFile)) {
+            try {
+                start = Long.parseLong(new String(Files.readAllBytes(this.leaseFile), StandardCharsets.UTF_8).trim());
+            } catch (IOException | NumberFormatException e) {
+                throw new IllegalStateException("Cannot read reservation id lease " + leaseFile, e);
+            }
+        }
+        last = new AtomicLong(start << SEQUENCE_BITS);
+        leaseEnd = this.leaseFile == null ? Long.MAX_VALUE : 0;
+    }
+
+    long next() {
+        for (;;) {
+            long prev = last.get();
+            long next = Math.max(prev + 1, (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS);
+            long millis = next >>> SEQUENCE_BITS;
+            if (millis >= leaseEnd) {
+                renewLease(millis);
+            } else if (last.compareAndSet(prev, next)) {
+                return millis << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | (next & ((1 << SEQUENCE_BITS) - 1));
+            }
+        }
+    }
+
+    private synchronized void renewLease(long millis) {
+        if (millis < leaseEnd) return;
+        long end = millis + LEASE_MILLIS;
+        try {
+            Path tmp = leaseFile.resolveSibling(leaseFile.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ch.write(ByteBuffer.wrap(Long.toString(end).getBytes(StandardCharsets.UTF_8)));
+                ch.force(true);
+            }
+            try {
+                Files.move(tmp, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, leaseFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot persist reservation id lease " + leaseFile, e);
+        }
+        leaseEnd = end;
+    }
+
+    static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    static String format(long id) {
+        char[] out = new char[14];
+        out[0] = 'R';
+        for (int i = 13; i > 0; i--, id >>>= 5) out[i] = DIGITS[(int) (id & 31)];
+        return new String(out);
+    }
+
+    static long parse(String reservationId) {
+        if (reservationId.length() != 14 || reservationId.charAt(0) != 'R') {
+            throw new IllegalArgumentException("Invalid reservation id: " + reservationId);
+        }
+        long id = 0;
+        for (int i = 1; i < 14; i++) {
+            int digit = Arrays.binarySearch(DIGITS, Character.toUpperCase(reservationId.charAt(i)));
+            if (digit < 0) throw new IllegalArgumentException("Invalid reservation id: " + reservationId);
+            id = id << 5 | digit;
+        }
+        return id;
+    }
+}
+
+class Reservation {
+    enum Status { HELD, CONFIRMED, CANCELLED }
+
+    private long id;
+    private User guest;
+    private long checkInDay;
+    private long checkOutDay;
+    private Room room;
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.HELD);
+    private double cancellationFee;
+    private Hotel hotel; // set once the hotel has booked it; confirmations are journaled through it
+
+    public Reservation(User guest, String checkIn, String checkOut, Room room, double cancellationFee) {
+        this(ReservationIdGenerator.DEFAULT.next(), guest, RoomCalendar.epochDay(checkIn), RoomCalendar.epochDay(checkOut),
+                room, cancellationFee);
+    }
+
+    // a reservation restored from the journal keeps its original id
+    Reservation(long id, User guest, long checkInDay, long checkOutDay, Room room, double cancellationFee) {
+        this.id = id;
+        this.guest = guest;
+        this.checkInDay = checkInDay;
+        this.checkOutDay = checkOutDay;
+        this.room = room;
+        this.cancellationFee = cancellationFee;
+    }
+
+    void setHotel(Hotel hotel) {
+        this.hotel = hotel;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getReservationId() {
+        return ReservationIdGenerator.format(id);
+    }
+
+    public User getGuest() {
+        return guest;
+    }
+
+    public String getCheckIn() {
+        return LocalDate.ofEpochDay(checkInDay).toString();
+    }
+
+    public String getCheckOut() {
+        return LocalDate.ofEpochDay(checkOutDay).toString();
+    }
+
+    public long getCheckInDay() {
+        return checkInDay;
+    }
+
+    public long getCheckOutDay() {
+        return checkOutDay;
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    public Status getStatus() {
+        return status.get();
+    }
+
+    public boolean isConfirmed() {
+        return status.get() == Status.CONFIRMED;
+    }
+
+    public boolean isCancelled() {
+        return status.get() == Status.CANCELLED;
+    }
+
+    public double getCancellationFee() {
+        return cancellationFee;
+    }
+
+    // HELD -> CONFIRMED; false if the reservation was cancelled (or confirmed) first
+    public boolean confirmReservation() {
+        if (hotel != null) {
+            return hotel.confirm(this); // journals it, then queues the guest's confirmation
+        }
+        return markConfirmed();
+    }
+
+    // the bare transition, for Hotel.confirm and journal replay
+    boolean markConfirmed() {
+        return status.compareAndSet(Status.HELD, Status.CONFIRMED);
+    }
+
+    // undoes a transition whose journal record could not be made durable
+    void revert(Status from, Status to) {
+        status.compareAndSet(from, to);
+    }
+
+    // HELD/CONFIRMED -> CANCELLED exactly once, returning the status it left (null if already
+    // cancelled); called through Hotel.cancelReservation so the nights are freed too
+    Status cancelReservation() {
+        Status current;
+        do {
+            current = status.get();
+            if (current == Status.CANCELLED) {
+                return null;
+            }
+        } while (!status.compareAndSet(current, Status.CANCELLED));
+        return current;
+    }
+}
+
+// The append buffer and group commit behind HotelJournal and NotificationSpool. append() frames a
+// record as [int length][int crc32 of body][body] in memory; sync() swaps that buffer with an
+// empty one, then writes and forces it outside the lock, so appends continue meanwhile and one
+// force covers every record appended before the swap. Offsets count the bytes appended, starting
+// from the offset the log was created at.
+//
+// A write or force that throws may have left any part of its batch on disk, so nothing is ever
+// written after it: the log fails, and every later append() and sync() throws with that error
+// as the cause. The owner has to be reopened, which truncates a torn tail when it replays.
+class GroupCommitLog {
+    // continue in another file: called with everything appended so far written and forced to flushed
+    interface Switch {
+        FileChannel next(FileChannel flushed) throws IOException;
+    }
+
+    private FileChannel channel;   // guarded by this
+    private ByteBuffer pending;    // appended, not yet written; guarded by this
+    private ByteBuffer writing;    // swapped with pending by the syncer; guarded by syncLock
+    private long appended;         // guarded by this
+    private final CRC32 crc = new CRC32(); // guarded by this
+    private final Object syncLock = new Object();
+    private volatile long durable;
+    private volatile IOException failure;
+
+    GroupCommitLog(FileChannel channel, long offset, int bufferBytes) {
+        this.channel = channel;
+        this.pending = ByteBuffer.allocate(bufferBytes);
+        this.writing = ByteBuffer.allocate(bufferBytes);
+        this.appended = offset;
+        this.durable = offset;
+    }
+
+    // appends body[0, body.position()) as one record; returns the offset just past it
+    synchronized long append(ByteBuffer body) {
+        if (failure != null) {
+            throw new IllegalStateException("Log failed earlier: " + failure.getMessage(), failure);
+        }
+        int len = body.position();
+        if (pending.remaining() < 8 + len) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + 8 + len));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        crc.reset();
+        crc.update(body.array(), 0, len);
+        pending.putInt(len).putInt((int) crc.getValue()).put(body.array(), 0, len);
+        appended += 8 + len;
+        return appended;
+    }
+
+    synchronized long end() {
+        return appended;
+    }
+
+    // end of the records known to be on disk
+    long durable() {
+        return durable;
+    }
+
+    synchronized FileChannel channel() {
+        return channel;
+    }
+
+    // returns once every record up to offset is on disk; concurrent callers share one write + force
+    void sync(long offset) throws IOException {
+        if (durable >= offset) return;
+        synchronized (syncLock) {
+            if (durable >= offset) return;
+            checkOpen();
+            FileChannel ch;
+            long target;
+            synchronized (this) {
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                ch = channel;
+                target = appended;
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) ch.write(writing);
+                ch.force(false);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                writing.clear();
+            }
+            durable = target;
+        }
+    }
+
+    // writes and forces everything appended so far, then continues in the channel s returns;
+    // appends and syncs wait until it has
+    void switchChannel(Switch s) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                checkOpen();
+                try {
+                    pending.flip();
+                    while (pending.hasRemaining()) channel.write(pending);
+                    channel.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                    throw e;
+                } finally {
+                    pending.clear();
+                }
+                durable = appended;
+                channel = s.next(channel);
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        IOException f = failure;
+        if (f != null) {
+            throw new IOException("Log failed earlier: " + f.getMessage(), f);
+        }
+    }
+}
+
+// Event-sourced persistence: every state change is appended to a binary journal
+// (<base>.<n> segments) and the full state is periodically written to a compact snapshot.
+// Startup loads the snapshot and replays only the segments after it.
+//
+// Journal record: [int length][int crc32 of body][body: byte type, fields], appended and group
+// committed through a GroupCommitLog. A failed write fails the journal for good, so a torn batch
+// is never followed by more records; reopening truncates it at the first bad record.
+//
+// Snapshot: magic, first uncovered segment, rooms, live reservations. It is written to a
+// temp file, forced and atomically renamed, then the segments it covers are deleted.
+// The rotation and the copy of the state it snapshots (statuses included) happen while Hotel holds
+// changes off, so the snapshot never overlaps the segments after it.
+class HotelJournal {
+    static final byte ROOM_ADDED = 1, RESERVATION_CREATED = 2, RESERVATION_CONFIRMED = 3, RESERVATION_CANCELLED = 4,
+            RESERVATIONS_CREATED = 5;
+    static final long COMPACT_BYTES = 64L << 20;
+    private static final int SNAPSHOT_MAGIC = 0x48544c31; // "HTL1"
+
+    interface Replayer {
+        void roomAdded(int index, String roomNumber, String roomType, double price);
+
+        void reservationCreated(long id, int room, long checkInDay, long checkOutDay, User guest, double cancellationFee);
+
+        void reservationConfirmed(long id);
+
+        void reservationCancelled(long id);
+    }
+
+    // opens a segment file for appending; tests substitute channels that fail
+    interface SegmentOpener {
+        FileChannel open(Path segment) throws IOException;
+    }
+
+    static final SegmentOpener APPEND = p -> FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+
+    private final Path snapshot;
+    private final Path base;
+    private final SegmentOpener opener;
+    private final GroupCommitLog log;
+    private long segment;                      // guarded by this
+    private long segmentBytes;                 // guarded by this
+    private ByteBuffer record = ByteBuffer.allocate(256); // body of the record being built; guarded by this
+
+    private HotelJournal(Path snapshot, Path base, long segment, SegmentOpener opener) throws IOException {
+        this.snapshot = snapshot;
+        this.base = base;
+        this.segment = segment;
+        this.opener = opener;
+        FileChannel channel = opener.open(segmentPath(base, segment));
+        this.segmentBytes = channel.size();
+        this.log = new GroupCommitLog(channel, 0, 64 << 10);
+    }
+
+    // load the snapshot, replay the segments it does not cover, then continue in a fresh segment
+    static HotelJournal open(Path snapshot, Path base, Replayer replayer) throws IOException {
+        return open(snapshot, base, replayer, APPEND);
+    }
+
+    static HotelJournal open(Path snapshot, Path base, Replayer replayer, SegmentOpener opener) throws IOException {
+        long first = readSnapshot(snapshot, replayer);
+        long next = first;
+        boolean torn = false;
+        for (long n : segments(base)) {
+            Path p = segmentPath(base, n);
+            if (n < first || torn) {
+                Files.delete(p); // covered by the snapshot, or written after a torn record
+                continue;
+            }
+            torn = !replay(p, replayer);
+            next = n + 1;
+        }
+        return new HotelJournal(snapshot, base, next, opener);
+    }
+
+    // The methods below append one record each and return its sequence number for awaitDurable().
+    // They throw IllegalStateException once a write has failed.
 
-    public Hotel(String name) {
-        this.name = name;
-        this.rooms = new ArrayList<>();
+    synchronized long roomAdded(int index, Room room) {
+        begin(ROOM_ADDED);
+        record.putInt(index);
+        putString(room.getRoomNumber());
+        putString(room.getRoomType());
+        record.putDouble(room.getPrice());
+        return end();
     }
 
-    public void addRoom(Room room) {
-        rooms.add(room);
+    synchronized long reservationCreated(Reservation r) {
+        begin(RESERVATION_CREATED);
+        putReservation(r);
+        return end();
     }
 
-    public List<Room> findAvailableRooms(String checkIn, String checkOut) {
-        // Implement logic to check room availability based on check-in and check-out dates
-        // This would involve iterating over rooms and checking if they are available for the given period
-        List<Room> availableRooms = new ArrayList<>();
-        for (Room room : rooms) {
-            if (room.isAvailable()) {
-                availableRooms.add(room);
+    // a group booking is a single record, so replay after a crash sees all of it or none
+    synchronized long reservationsCreated(List<Reservation> group) {
+        begin(RESERVATIONS_CREATED);
+        record.putInt(group.size());
+        for (Reservation r : group) putReservation(r);
+        return end();
+    }
+
+    private void putReservation(Reservation r) {
+        ensure(40);
+        record.putLong(r.getId()).putInt(r.getRoom().getIndex()).putLong(r.getCheckInDay()).putLong(r.getCheckOutDay());
+        putString(r.getGuest().getName());
+        putString(r.getGuest().getEmail());
+        putString(r.getGuest().getPhoneNumber());
+        record.putDouble(r.getCancellationFee());
+    }
+
+    // RESERVATION_CONFIRMED or RESERVATION_CANCELLED
+    synchronized long statusChanged(byte type, long id) {
+        begin(type);
+        record.putLong(id);
+        return end();
+    }
+
+    private void begin(byte type) {
+        record.clear();
+        record.put(type);
+    }
+
+    private long end() {
+        long seq = log.append(record);
+        segmentBytes += 8 + record.position();
+        return seq;
+    }
+
+    private void putString(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + b.length + 32);
+        record.putInt(b.length).put(b);
+    }
+
+    private void ensure(int bytes) {
+        if (record.remaining() < bytes + 32) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes + 64));
+            record.flip();
+            grown.put(record);
+            record = grown;
+        }
+    }
+
+    // returns once record seq is on disk; concurrent callers are covered by a single write + force.
+    // After a failed write or force this and every later call throw.
+    void awaitDurable(long seq) throws IOException {
+        log.sync(seq);
+    }
+
+    synchronized boolean needsCompaction() {
+        return segmentBytes > COMPACT_BYTES;
+    }
+
+    // flush into the current segment and start a new one; returns its number
+    synchronized long rotate() throws IOException {
+        log.switchChannel(flushed -> {
+            flushed.close();
+            FileChannel next = opener.open(segmentPath(base, segment + 1));
+            segment++;
+            segmentBytes = 0;
+            return next;
+        });
+        return segment;
+    }
+
+    // rooms[0, roomCount) and the reservations that are still live, live.get(i) confirmed when bit i of
+    // confirmed is set; firstUncovered comes from rotate()
+    void writeSnapshot(Room[] rooms, int roomCount, List<Reservation> live, BitSet confirmed, long firstUncovered) throws IOException {
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(firstUncovered);
+            out.writeInt(roomCount);
+            for (int i = 0; i < roomCount; i++) {
+                out.writeUTF(rooms[i].getRoomNumber());
+                out.writeUTF(rooms[i].getRoomType());
+                out.writeDouble(rooms[i].getPrice());
             }
+            out.writeInt(live.size());
+            for (int i = 0; i < live.size(); i++) {
+                Reservation r = live.get(i);
+                out.writeLong(r.getId());
+                out.writeInt(r.getRoom().getIndex());
+                out.writeLong(r.getCheckInDay());
+                out.writeLong(r.getCheckOutDay());
+                out.writeUTF(r.getGuest().getName());
+                out.writeUTF(r.getGuest().getEmail());
+                out.writeUTF(r.getGuest().getPhoneNumber());
+                out.writeDouble(r.getCancellationFee());
+                out.writeBoolean(confirmed.get(i));
+            }
+            out.flush();
+            fos.getFD().sync();
         }
-        return availableRooms;
+        try {
+            Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (long n : segments(base)) {
+            if (n < firstUncovered) Files.deleteIfExists(segmentPath(base, n));
+        }
+    }
+
+    // feeds the snapshot to the replayer; returns the first segment it does not cover (0 without a snapshot)
+    private static long readSnapshot(Path snapshot, Replayer replayer) throws IOException {
+        if (!Files.exists(snapshot)) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException(snapshot + " is not a hotel snapshot");
+            long firstUncovered = in.readLong();
+            int rooms = in.readInt();
+            for (int i = 0; i < rooms; i++) {
+                replayer.roomAdded(i, in.readUTF(), in.readUTF(), in.readDouble());
+            }
+            int live = in.readInt();
+            for (int i = 0; i < live; i++) {
+                long id = in.readLong();
+                int room = in.readInt();
+                long checkInDay = in.readLong(), checkOutDay = in.readLong();
+                User guest = new User(in.readUTF(), in.readUTF(), in.readUTF());
+                replayer.reservationCreated(id, room, checkInDay, checkOutDay, guest, in.readDouble());
+                if (in.readBoolean()) replayer.reservationConfirmed(id);
+            }
+            return firstUncovered;
+        }
+    }
+
+    private FileChannel openSegment(long n) throws IOException {
+        return FileChannel.open(segmentPath(base, n), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(Path base, long n) {
+        return base.resolveSibling(base.getFileName() + "." + n);
+    }
+
+    // existing segment numbers, ascending
+    private static List<Long> segments(Path base) throws IOException {
+        Path dir = base.toAbsolutePath().getParent();
+        String prefix = base.getFileName() + ".";
+        List<Long> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path p : ds) {
+                String suffix = p.getFileName().toString().substring(prefix.length());
+                if (suffix.matches("\\d+")) out.add(Long.parseLong(suffix));
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    // applies the segment's records; false (and the segment truncated) at a torn or corrupt record
+    private static boolean replay(Path p, Replayer replayer) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(p));
+        CRC32 check = new CRC32();
+        while (buf.remaining() > 0) {
+            int start = buf.position();
+            if (buf.remaining() < 8) return truncate(p, start);
+            int len = buf.getInt();
+            int crc = buf.getInt();
+            if (len < 1 || len > buf.remaining()) return truncate(p, start);
+            check.reset();
+            check.update(buf.array(), buf.position(), len);
+            if ((int) check.getValue() != crc) return truncate(p, start);
+            byte type = buf.get();
+            switch (type) {
+                case ROOM_ADDED:
+                    replayer.roomAdded(buf.getInt(), getString(buf), getString(buf), buf.getDouble());
+                    break;
+                case RESERVATION_CREATED:
+                    replayReservation(buf, replayer);
+                    break;
+                case RESERVATIONS_CREATED:
+                    for (int n = buf.getInt(); n > 0; n--) replayReservation(buf, replayer);
+                    break;
+                case RESERVATION_CONFIRMED:
+                    replayer.reservationConfirmed(buf.getLong());
+                    break;
+                case RESERVATION_CANCELLED:
+                    replayer.reservationCancelled(buf.getLong());
+                    break;
+                default:
+                    throw new IOException(p.getFileName() + ": unknown record type " + type + " at byte " + start);
+            }
+            buf.position(start + 8 + len);
+        }
+        return true;
+    }
+
+    private static void replayReservation(ByteBuffer buf, Replayer replayer) {
+        long id = buf.getLong();
+        int room = buf.getInt();
+        long checkInDay = buf.getLong(), checkOutDay = buf.getLong();
+        User guest = new User(getString(buf), getString(buf), getString(buf));
+        replayer.reservationCreated(id, room, checkInDay, checkOutDay, guest, buf.getDouble());
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static boolean truncate(Path p, long validBytes) throws IOException {
+        System.err.println("Hotel journal " + p.getFileName() + ": torn record at byte " + validBytes + ", later events dropped");
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE)) {
+            ch.truncate(validBytes);
+        }
+        return false;
     }
 }
 
-class Reservation {
-    private String reservationId;
-    private User guest;
-    private String checkIn;
-    private String checkOut;
-    private Room room;
-    private boolean isConfirmed;
-    private boolean isCancelled;
-    private double cancellationFee;
+// A message for a guest about a booking state change; delivered asynchronously by NotificationOutbox.
+class Notification {
+    enum Kind { CONFIRMATION, CANCELLATION }
 
-    public Reservation(User guest, String checkIn, String checkOut, Room room, double cancellationFee) {
-        this.reservationId = generateReservationId();
+    private final Kind kind;
+    private final String reservationId;
+    private final User guest;
+    private final String roomNumber;
+    private final String checkIn;
+    private final String checkOut;
+    private final double fee; // cancellation fee to charge; 0 for confirmations and released holds
+
+    Notification(Kind kind, Reservation reservation, double fee) {
+        this(kind, reservation.getReservationId(), reservation.getGuest(), reservation.getRoom().getRoomNumber(),
+                reservation.getCheckIn(), reservation.getCheckOut(), fee);
+    }
+
+    // as read back from a NotificationSpool
+    Notification(Kind kind, String reservationId, User guest, String roomNumber, String checkIn, String checkOut, double fee) {
+        this.kind = kind;
+        this.reservationId = reservationId;
         this.guest = guest;
+        this.roomNumber = roomNumber;
         this.checkIn = checkIn;
         this.checkOut = checkOut;
-        this.room = room;
-        this.isConfirmed = false;
-        this.isCancelled = false;
-        this.cancellationFee = cancellationFee;
+        this.fee = fee;
     }
 
-    private String generateReservationId() {
-        // Implement logic to generate a unique reservation ID
-        return "R" + System.currentTimeMillis(); // Placeholder
+    public Kind getKind() {
+        return kind;
     }
 
     public String getReservationId() {
@@ -119,6 +1677,10 @@ class Reservation {
         return guest;
     }
 
+    public String getRoomNumber() {
+        return roomNumber;
+    }
+
     public String getCheckIn() {
         return checkIn;
     }
@@ -127,38 +1689,893 @@ class Reservation {
         return checkOut;
     }
 
-    public Room getRoom() {
-        return room;
+    public double getFee() {
+        return fee;
     }
 
-    public boolean isConfirmed() {
-        return isConfirmed;
+    // plain-text body, e.g. for an email
+    public String getMessage() {
+        if (kind == Kind.CONFIRMATION) {
+            return "Dear " + guest.getName() + ", your reservation " + reservationId + " for room " + roomNumber
+                    + " from " + checkIn + " to " + checkOut + " is confirmed.";
+        }
+        return "Dear " + guest.getName() + ", your reservation " + reservationId + " for room " + roomNumber
+                + " from " + checkIn + " to " + checkOut + " has been cancelled"
+                + (fee > 0 ? String.format(Locale.ROOT, "; a cancellation fee of %.2f has been charged.", fee) : ".");
     }
+}
 
-    public boolean isCancelled() {
-        return isCancelled;
+// Where notifications go (mail gateway, payment service, ...). deliver() gets a whole batch and
+// throws to have the outbox retry it.
+interface NotificationSink {
+    void deliver(List<Notification> batch) throws IOException;
+}
+
+// Appends each notification as a line to a local file: a stand-in for a mail gateway when testing.
+class FileNotificationSink implements NotificationSink {
+    private final Path file;
+
+    FileNotificationSink(String file) {
+        this.file = Paths.get(file);
     }
 
-    public double getCancellationFee() {
-        return cancellationFee;
+    public synchronized void deliver(List<Notification> batch) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Notification n : batch) {
+            sb.append(n.getKind()).append('\t').append(n.getGuest().getEmail()).append('\t').append(n.getMessage()).append('\n');
+        }
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
+
+// Disk copy of the notifications an outbox has not finished with, so a crash does not lose them and
+// a full queue can spill to disk. Records are appended through a GroupCommitLog, as in HotelJournal,
+// and read back in order; <file>.cursor holds the offset below which every record has been delivered
+// or dead-lettered (<file>.dead). open() makes everything from the cursor on pending again, so
+// delivery is at least once.
+//
+// File: magic, offset of the first record, then [int length][int crc32 of body][body: kind,
+// reservation id, guest, room, check-in, check-out, fee]. Offsets count from the first record ever
+// written, so they stay valid when the file is compacted: once the cursor is COMPACT_BYTES in, the
+// records after it are copied to a new file that is renamed over the old one.
+class NotificationSpool {
+    static final long COMPACT_BYTES = 4L << 20;
+    private static final int MAGIC = 0x4e4f5431; // "NOT1"
+    private static final int HEADER_BYTES = 4 + 8;
+
+    // a spooled notification and the offsets of its record
+    static final class Entry {
+        final Notification notification;
+        final long start;
+        final long end;
+
+        Entry(Notification notification, long start, long end) {
+            this.notification = notification;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final Path file;
+    private final Path deadLetters;
+    private final FileChannel cursorChannel;
+    private GroupCommitLog log;   // set by open()
+    private long base;            // offset of the first record in the file; guarded by this
+    private long cursor;          // guarded by this
+    private ByteBuffer record = ByteBuffer.allocate(256); // body of the record being built; guarded by this
+
+    private NotificationSpool(Path file) throws IOException {
+        this.file = file;
+        this.deadLetters = file.resolveSibling(file.getFileName() + ".dead");
+        this.cursorChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".cursor"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // opens (or creates) the spool; the records after the cursor are the ones still pending
+    static NotificationSpool open(Path file) throws IOException {
+        NotificationSpool s = new NotificationSpool(file);
+        if (!Files.exists(file)) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.write(header(0));
+            channel.force(true);
+            s.log = new GroupCommitLog(channel, 0, 16 << 10);
+            return s;
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not a notification spool");
+        }
+        s.base = header.getLong();
+        long end = s.base + channel.size() - HEADER_BYTES;
+        ByteBuffer c = ByteBuffer.allocate(8);
+        s.cursorChannel.read(c, 0);
+        s.cursor = c.position() == 8 ? Math.max(s.base, Math.min(end, c.getLong(0))) : s.base;
+        // records before the cursor are done; the ones after it are checked, and a torn tail is cut off
+        long valid = s.scan(channel, s.cursor, end);
+        if (valid < end) {
+            System.err.println("Notification spool " + file.getFileName() + ": torn record at offset " + valid + ", later notifications dropped");
+            channel.truncate(valid - s.base + HEADER_BYTES);
+        }
+        channel.position(channel.size());
+        s.log = new GroupCommitLog(channel, valid, 16 << 10);
+        return s;
+    }
+
+    private static ByteBuffer header(long base) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putLong(base);
+        header.flip();
+        return header;
+    }
+
+    // end of the intact records from offset from on
+    private long scan(FileChannel channel, long from, long end) throws IOException {
+        ByteBuffer buf = readAt(channel, from, end);
+        CRC32 check = new CRC32();
+        int valid = 0;
+        while (buf.limit() - valid >= 8) {
+            int len = buf.getInt(valid), crc = buf.getInt(valid + 4);
+            if (len <= 0 || len > buf.limit() - valid - 8) break;
+            check.reset();
+            check.update(buf.array(), valid + 8, len);
+            if ((int) check.getValue() != crc) break;
+            valid += 8 + len;
+        }
+        return from + valid;
+    }
+
+    // the bytes of offsets [from, end)
+    private ByteBuffer readAt(FileChannel channel, long from, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - from));
+        long pos = from - base + HEADER_BYTES;
+        while (buf.hasRemaining() && channel.read(buf, pos + buf.position()) > 0) {
+            // until full or at the end of the file
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // throws IllegalStateException once a write to the spool has failed
+    synchronized Entry append(Notification n) {
+        record.clear();
+        record.put((byte) n.getKind().ordinal());
+        putString(n.getReservationId());
+        putString(n.getGuest().getName());
+        putString(n.getGuest().getEmail());
+        putString(n.getGuest().getPhoneNumber());
+        putString(n.getRoomNumber());
+        putString(n.getCheckIn());
+        putString(n.getCheckOut());
+        ensure(8);
+        record.putDouble(n.getFee());
+        long end = log.append(record);
+        return new Entry(n, end - 8 - record.position(), end);
+    }
+
+    private void putString(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + b.length);
+        record.putInt(b.length).put(b);
+    }
+
+    private void ensure(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes + 64));
+            record.flip();
+            grown.put(record);
+            record = grown;
+        }
+    }
+
+    // returns once the record ending at end is on disk; concurrent callers share one write + force
+    void awaitDurable(long end) throws IOException {
+        log.sync(end);
+    }
+
+    long end() {
+        return log.end();
+    }
+
+    // end of the records on disk
+    long durable() {
+        return log.durable();
+    }
+
+    synchronized long cursor() {
+        return cursor;
+    }
+
+    // up to max records from offset from on, stopping at the ones not yet on disk
+    synchronized List<Entry> read(long from, int max) throws IOException {
+        List<Entry> out = new ArrayList<>();
+        long end = Math.min(log.durable(), from + (1 << 20));
+        if (end <= from) return out;
+        ByteBuffer buf = readAt(log.channel(), from, end);
+        while (out.size() < max && buf.remaining() >= 8) {
+            int start = buf.position();
+            int len = buf.getInt();
+            if (len > buf.remaining() - 4) break;
+            buf.getInt(); // crc, checked when the spool was opened
+            Notification.Kind kind = Notification.Kind.values()[buf.get()];
+            String id = getString(buf);
+            User guest = new User(getString(buf), getString(buf), getString(buf));
+            Notification n = new Notification(kind, id, guest, getString(buf), getString(buf), getString(buf), buf.getDouble());
+            out.add(new Entry(n, from + start, from + start + 8 + len));
+            buf.position(start + 8 + len);
+        }
+        return out;
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // records below offset to are no longer pending; true when the file is due for compact()
+    synchronized boolean advance(long to) throws IOException {
+        if (to <= cursor) return false;
+        cursor = to;
+        ByteBuffer c = ByteBuffer.allocate(8).putLong(to);
+        c.flip();
+        cursorChannel.write(c, 0);
+        return cursor - base >= COMPACT_BYTES;
+    }
+
+    // copy the records after the cursor to a new file and rename it over the spool
+    synchronized void compact() throws IOException {
+        if (cursor - base < COMPACT_BYTES) return;
+        log.switchChannel(flushed -> {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                out.write(header(cursor));
+                long pos = cursor - base + HEADER_BYTES, last = log.end() - base + HEADER_BYTES;
+                while (pos < last) pos += flushed.transferTo(pos, last - pos, out);
+                out.force(true);
+            }
+            flushed.close();
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            FileChannel next = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            next.position(next.size());
+            base = cursor;
+            return next;
+        });
+    }
+
+    // notifications the outbox gave up on, one line each, for someone to follow up
+    synchronized void deadLetter(List<Entry> batch) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : batch) {
+            Notification n = e.notification;
+            sb.append(n.getKind()).append('\t').append(n.getGuest().getEmail()).append('\t').append(n.getMessage()).append('\n');
+        }
+        Files.write(deadLetters, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
+
+// Outbox between the booking path and slow delivery. publish() enqueues onto a bounded queue;
+// worker threads drain it in batches and hand each batch to the sink, retrying failures with
+// exponential backoff. With a spool, publish() only appends the notification to the spool's
+// buffer: a flusher thread forces it to disk within FLUSH_DELAY_MILLIS, one force for everything
+// published meanwhile, so bookings never wait on the spool's fsync. Once on disk (a crash before
+// that loses it, though the booking it reports is durable) it stays pending until delivered or, after MAX_ATTEMPTS,
+// dead-lettered, so a crash leads to redelivery instead of loss. When the queue is full the
+// notification is left in the spool only and the workers read it back once it is on disk and
+// there is room. Without a spool a full queue blocks publish().
+class NotificationOutbox {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final long FLUSH_DELAY_MILLIS = 5;
+
+    private final NotificationSink sink;
+    private final NotificationSpool spool; // null: pending notifications live in memory only
+    private final BlockingQueue<NotificationSpool.Entry> queue;
+    private final int batchSize;
+    private final Thread[] workers;
+    private final Thread flusher; // null without a spool
+    private volatile boolean closed;
+    private final TreeSet<Long> inFlight = new TreeSet<>(); // spool offsets of queued or delivering entries; guarded by this
+    private long spilledFrom = -1; // spool offset from which pending entries are on disk only; guarded by this
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    NotificationOutbox(NotificationSink sink, NotificationSpool spool, int capacity, int workerCount, int batchSize) {
+        this.sink = sink;
+        this.spool = spool;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        if (spool != null && spool.cursor() < spool.end()) {
+            spilledFrom = spool.cursor(); // still pending from the last run
+        }
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::work, "notifications-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        if (spool != null) {
+            flusher = new Thread(this::flush, "notifications-flush");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    NotificationOutbox(NotificationSink sink, NotificationSpool spool) {
+        this(sink, spool, 10000, 2, 100);
+    }
+
+    // false once the outbox is closed, or when the spool has failed and the queue is full
+    boolean publish(Notification n) {
+        if (closed) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        if (spool == null) {
+            try {
+                queue.put(new NotificationSpool.Entry(n, 0, 0));
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        NotificationSpool.Entry e;
+        synchronized (this) {
+            try {
+                e = spool.append(n);
+            } catch (IllegalStateException ex) {
+                // the spool has failed: keep delivering from memory while the queue has room
+                if (queue.offer(new NotificationSpool.Entry(n, -1, -1))) return true;
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (spilledFrom < 0 && queue.offer(e)) {
+                inFlight.add(e.start);
+            } else {
+                if (spilledFrom < 0) spilledFrom = e.start;
+                spilled.incrementAndGet();
+            }
+        }
+        LockSupport.unpark(flusher);
+        return true;
+    }
+
+    // forces what publish() appended to the spool at most once per FLUSH_DELAY_MILLIS, so a burst of
+    // bookings costs one spool force instead of one each (the forces compete with the journal's for
+    // the disk), then parks until publish() wakes it
+    private void flush() {
+        while (true) {
+            if (spool.end() > spool.durable()) {
+                try {
+                    if (!closed) Thread.sleep(FLUSH_DELAY_MILLIS); // let more notifications join this force
+                    spool.awaitDurable(spool.end());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Error writing notification spool: " + e.getMessage());
+                    return; // the spool has failed; publish() falls back to memory
+                }
+            } else if (closed) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+
+    private void work() {
+        List<NotificationSpool.Entry> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                refill();
+                NotificationSpool.Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && !backlog()) return;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch);
+                completed(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized boolean backlog() {
+        return spilledFrom >= 0;
+    }
+
+    // moves spilled entries from the spool back into the queue while it has room
+    private synchronized void refill() {
+        if (spilledFrom < 0 || queue.remainingCapacity() == 0) return;
+        try {
+            for (NotificationSpool.Entry e : spool.read(spilledFrom, queue.remainingCapacity())) {
+                queue.offer(e);
+                inFlight.add(e.start);
+                spilledFrom = e.end;
+            }
+            if (spilledFrom == spool.end()) spilledFrom = -1;
+        } catch (IOException e) {
+            System.err.println("Error reading notification spool: " + e.getMessage());
+        }
+    }
+
+    // moves the spool cursor past everything that is no longer pending
+    private void completed(List<NotificationSpool.Entry> batch) {
+        if (spool == null) return;
+        try {
+            boolean compact;
+            synchronized (this) {
+                for (NotificationSpool.Entry e : batch) inFlight.remove(e.start);
+                compact = spool.advance(spoolCursor());
+            }
+            if (compact) spool.compact();
+        } catch (IOException e) {
+            System.err.println("Error updating notification spool: " + e.getMessage());
+        }
+    }
+
+    private synchronized long spoolCursor() {
+        long cursor = spilledFrom >= 0 ? spilledFrom : spool.end();
+        return inFlight.isEmpty() ? cursor : Math.min(cursor, inFlight.first());
+    }
+
+    private void deliver(List<NotificationSpool.Entry> batch) throws InterruptedException {
+        List<Notification> notifications = new ArrayList<>(batch.size());
+        for (NotificationSpool.Entry e : batch) notifications.add(e.notification);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sink.deliver(notifications);
+                delivered.addAndGet(batch.size());
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    failed.addAndGet(batch.size());
+                    System.err.println("Giving up on " + batch.size() + " notifications after " + attempt + " attempts: " + e.getMessage());
+                    deadLetter(batch);
+                    return;
+                }
+                retries.incrementAndGet();
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+                Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1)); // jitter spreads retries out
+            }
+        }
+    }
+
+    private void deadLetter(List<NotificationSpool.Entry> batch) {
+        if (spool == null) return;
+        try {
+            spool.deadLetter(batch);
+        } catch (IOException e) {
+            System.err.println("Error writing dead letters: " + e.getMessage());
+        }
+    }
+
+    // stop accepting notifications and wait up to timeoutMillis for the queue (and spilled backlog) to drain
+    void close(long timeoutMillis) throws InterruptedException {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            flusher.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        if (spool != null) {
+            try {
+                spool.awaitDurable(spool.end()); // a publish that raced with closing
+            } catch (IOException e) {
+                System.err.println("Error writing notification spool: " + e.getMessage());
+            }
+        }
+    }
+
+    long delivered() { return delivered.get(); }
+    long retries() { return retries.get(); }
+    long failed() { return failed.get(); }
+    long spilled() { return spilled.get(); }
+    long rejected() { return rejected.get(); }
+    int pending() { return queue.size(); }
+
+    public String toString() {
+        return "notifications: delivered=" + delivered() + " retries=" + retries() + " failed=" + failed()
+                + " spilled=" + spilled() + " rejected=" + rejected() + " pending=" + pending();
+    }
+}
+
+// java HotelReservationSystem --bench : availability search over hotels of 1k..100k rooms with a year of bookings,
+// timed by BenchHarness
+class HotelBenchmark {
+    static void run() {
+        String[] types = { "Standard", "Deluxe", "Suite" };
+        User guest = new User("Bench Guest", "bench@example.com", "0000000000");
+        for (int rooms : new int[] { 1000, 10000, 100000 }) {
+            Hotel hotel = new Hotel("Bench");
+            Random random = new Random(42);
+            List<Room> all = new ArrayList<>(rooms);
+            for (int i = 0; i < rooms; i++) {
+                Room room = new Room(Integer.toString(100 + i), types[i % types.length], 60 + random.nextInt(200));
+                room.setAvailable(random.nextInt(20) != 0);
+                hotel.addRoom(room);
+                all.add(room);
+            }
+            // roughly 70% occupancy through 2024: stays of 1-7 nights separated by 0-5 free nights
+            LocalDate first = LocalDate.of(2024, 1, 1);
+            for (Room room : all) {
+                for (int day = random.nextInt(4); day < 366; ) {
+                    int nights = 1 + random.nextInt(7);
+                    hotel.reserve(guest, room, first.plusDays(day).toString(), first.plusDays(day + nights).toString(), 0);
+                    day += nights + random.nextInt(6);
+                }
+            }
+            int ops = rooms >= 100000 ? 200 : 2000;
+            BenchHarness.measure("findAvailableRooms", rooms, ops, bh -> bh.consume(hotel.findAvailableRooms("2024-09-01", "2024-09-05")));
+            BenchHarness.measure("find 14 nights", rooms, ops, bh -> bh.consume(hotel.findAvailableRooms("2024-10-01", "2024-10-15")));
+            BenchHarness.measure("Deluxe <= 120 wkend", rooms, ops,
+                    bh -> bh.consume(hotel.findAvailableRooms("2024-09-06", "2024-09-08", "Deluxe", 0, 120)));
+            BenchHarness.measure("reserve+cancel", rooms, 20000, bh -> {
+                Reservation r = hotel.reserve(guest, all.get(random.nextInt(rooms)), "2025-02-01", "2025-02-03", 0);
+                if (r != null) hotel.cancelReservation(r);
+                bh.consume(r);
+            });
+            // delivery takes 2 ms per batch, but bookings only pay for the enqueue
+            NotificationOutbox outbox = new NotificationOutbox(batch -> {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, null, 100000, 2, 100);
+            hotel.setNotifications(outbox);
+            BenchHarness.measure("confirm+cancel+notify", rooms, 20000, bh -> {
+                Reservation r = hotel.reserve(guest, all.get(random.nextInt(rooms)), "2025-02-05", "2025-02-07", 10);
+                if (r != null && r.confirmReservation()) hotel.cancelReservation(r);
+                bh.consume(r);
+            });
+            hotel.setNotifications(null);
+            try {
+                outbox.close(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<BookingRequest> group = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                group.add(new BookingRequest(guest, types[i % types.length], "2025-04-10", i < 20 ? "2025-04-13" : "2025-04-12", 0));
+            }
+            BenchHarness.measure("reserveGroup 30", rooms, 5000, bh -> {
+                List<Reservation> booked = hotel.reserveGroup(group);
+                if (booked != null) for (Reservation r : booked) hotel.cancelReservation(r);
+                bh.consume(booked);
+            });
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors() && threads <= 16; threads *= 2) {
+                BenchHarness.measureConcurrent("reservation id " + threads + "t", rooms, threads, 1000000,
+                        (r, bh) -> bh.consume(ReservationIdGenerator.DEFAULT.next()));
+                BenchHarness.measureConcurrent("book " + threads + " threads", rooms, threads, 50000, (r, bh) -> {
+                    Reservation res = hotel.reserve(guest, all.get(r.nextInt(rooms)), "2025-03-01", "2025-03-04", 0);
+                    if (res != null && res.confirmReservation()) hotel.cancelReservation(res);
+                    bh.consume(res);
+                });
+            }
+        }
+        journaled(guest);
+    }
+
+    // booking throughput with every event fsynced to a journal in a temp directory; concurrent
+    // threads share forces, so throughput should grow with the thread count
+    private static void journaled(User guest) {
+        try {
+            Path dir = Files.createTempDirectory("hotel-bench");
+            Hotel hotel = new Hotel("Bench");
+            hotel.openJournal(dir.resolve("hotel.snapshot").toString(), dir.resolve("hotel.journal").toString());
+            List<Room> all = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                Room room = new Room(Integer.toString(100 + i), "Standard", 100);
+                hotel.addRoom(room);
+                all.add(room);
+            }
+            for (int threads = 1; threads <= 64; threads *= 4) {
+                BenchHarness.measureConcurrent("journaled " + threads + "t", 1000, threads, 4000 / threads, (r, bh) -> {
+                    Reservation res = hotel.reserve(guest, all.get(r.nextInt(all.size())), "2025-03-01", "2025-03-04", 0);
+                    if (res != null && res.confirmReservation()) hotel.cancelReservation(res);
+                    bh.consume(res);
+                });
+            }
+            // per-booking latency with and without a spooled outbox: the spool is forced off the
+            // booking path, so the two should match
+            BenchHarness.Op book = bh -> {
+                Reservation res = hotel.reserve(guest, all.get(ThreadLocalRandom.current().nextInt(all.size())), "2025-03-05", "2025-03-07", 10);
+                if (res != null && res.confirmReservation()) hotel.cancelReservation(res);
+                bh.consume(res);
+            };
+            BenchHarness.measure("journaled book", 1000, 2000, book);
+            NotificationOutbox outbox = new NotificationOutbox(batch -> { }, NotificationSpool.open(dir.resolve("notifications.spool")));
+            hotel.setNotifications(outbox);
+            BenchHarness.measure("journaled book+spool", 1000, 2000, book);
+            hotel.setNotifications(null);
+            try {
+                outbox.close(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            hotel.compactJournal();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files) Files.delete(f);
+            }
+            Files.delete(dir);
+        } catch (IOException e) {
+            System.err.println("Journal benchmark skipped: " + e.getMessage());
+        }
+    }
+}
+
+// java HotelReservationSystem --selftest : failure and concurrency cases that the demo and the
+// benchmark never hit. Prints one line per check and exits with status 1 at the first failure.
+class HotelSelfTest {
+    static void run() throws Exception {
+        failingJournal();
+        racingGroups();
+        bookingLimits();
+        System.out.println("All self-tests passed");
+    }
+
+    // a booking whose write fails is undone, the journal then rejects every change (each undone the
+    // same way), and reopening the files restores exactly the state that was durable
+    private static void failingJournal() throws Exception {
+        System.out.println("Journal write failure:");
+        Path dir = Files.createTempDirectory("hotel-selftest");
+        String snapshot = dir.resolve("hotel.snapshot").toString(), journal = dir.resolve("hotel.journal").toString();
+        List<FaultyChannel> opened = new ArrayList<>();
+        Hotel hotel = new Hotel("Test");
+        hotel.openJournal(snapshot, journal, p -> {
+            FaultyChannel ch = new FaultyChannel(HotelJournal.APPEND.open(p));
+            opened.add(ch);
+            return ch;
+        });
+        Room a = new Room("101", "Deluxe", 100), b = new Room("102", "Deluxe", 100), c = new Room("103", "Standard", 80);
+        hotel.addRoom(a);
+        hotel.addRoom(b);
+        hotel.addRoom(c);
+        User guest = new User("Test Guest", "guest@example.com", "0000000000");
+        Reservation kept = hotel.reserve(guest, a, "2025-05-01", "2025-05-03", 0);
+        check(kept != null, "booking before the failure succeeds");
+
+        opened.get(opened.size() - 1).failing = true; // writes now stop half way and throw
+        check(throwsIllegalState(() -> hotel.reserve(guest, b, "2025-05-01", "2025-05-03", 0)), "failed write throws");
+        check(hotel.isRoomFree(b, "2025-05-01", "2025-05-03"), "failed booking is undone");
+        opened.get(opened.size() - 1).failing = false;
+        check(throwsIllegalState(() -> hotel.reserve(guest, c, "2025-05-01", "2025-05-03", 0)), "later booking throws");
+        check(hotel.isRoomFree(c, "2025-05-01", "2025-05-03"), "later booking is undone");
+        check(throwsIllegalState(() -> hotel.addRoom(new Room("104", "Suite", 200))) && hotel.roomCount() == 3,
+                "later room is rejected");
+        check(throwsIllegalState(kept::confirmReservation) && kept.getStatus() == Reservation.Status.HELD,
+                "failed confirmation is undone");
+        check(throwsIllegalState(() -> hotel.cancelReservation(kept)) && kept.getStatus() == Reservation.Status.HELD
+                && !hotel.isRoomFree(a, "2025-05-01", "2025-05-03") && hotel.getReservation(kept.getReservationId()) != null,
+                "failed cancellation is undone");
+
+        Hotel reopened = new Hotel("Test");
+        reopened.openJournal(snapshot, journal);
+        check(reopened.roomCount() == 3, "reopen restores the rooms");
+        Reservation restored = reopened.getReservation(kept.getReservationId());
+        check(restored != null && restored.getStatus() == Reservation.Status.HELD, "reopen restores the durable booking");
+        check(reopened.findAvailableRooms("2025-05-01", "2025-05-03").size() == 2, "reopen drops the torn booking");
+        deleteTree(dir);
+    }
+
+    // groups that start together and contend for the same rooms: when the rooms suffice for all of
+    // them every group is booked, however often they collide, and when they suffice for only one,
+    // exactly one is
+    private static void racingGroups() throws Exception {
+        System.out.println("Racing group bookings:");
+        User guest = new User("Test Guest", "guest@example.com", "0000000000");
+        int fitted = 0, contested = 0;
+        for (int round = 0; round < 500; round++) {
+            fitted += race(guest, 8, 4, 2) == 4 ? 1 : 0;
+            contested += race(guest, 4, 2, 3) == 1 ? 1 : 0;
+        }
+        check(fitted == 500, "4 groups of 2 for the last 8 rooms all succeed (" + fitted + "/500 rounds)");
+        check(contested == 500, "2 groups of 3 for the last 4 rooms: one succeeds (" + contested + "/500 rounds)");
+
+        // threads rarely collide on a single CPU, so also lose the race on purpose: a competing booking
+        // takes the first planned room right before each of the first 5 attempts
+        Hotel hotel = new Hotel("Test", new RoomCalendar() {
+            int steals = 5;
+
+            @Override
+            boolean tryOccupyAll(int[] rooms, long[] from, long[] to) {
+                if (steals > 0) {
+                    steals--;
+                    tryOccupy(rooms[0], from[0], to[0]);
+                }
+                return super.tryOccupyAll(rooms, from, to);
+            }
+        });
+        for (int i = 0; i < 10; i++) hotel.addRoom(new Room(Integer.toString(100 + i), "Standard", 80));
+        List<BookingRequest> pair = new ArrayList<>();
+        for (int i = 0; i < 2; i++) pair.add(new BookingRequest(guest, "Standard", "2025-07-01", "2025-07-04", 0));
+        check(hotel.reserveGroup(pair) != null, "a group that loses 5 races in a row is still booked");
+        check(hotel.reserveGroup(pair) != null && hotel.reserveGroup(pair) == null,
+                "a group is refused once the rooms are gone (10 - 5 taken - 2 - 2 = 1 left)");
+    }
+
+    // groups of size rooms each, all started at once on a hotel with `rooms` free rooms; returns how many were booked
+    private static int race(User guest, int rooms, int groups, int size) throws Exception {
+        Hotel hotel = new Hotel("Test");
+        for (int i = 0; i < rooms; i++) hotel.addRoom(new Room(Integer.toString(100 + i), "Standard", 80));
+        List<BookingRequest> group = new ArrayList<>();
+        for (int i = 0; i < size; i++) group.add(new BookingRequest(guest, "Standard", "2025-07-01", "2025-07-04", 0));
+        CyclicBarrier start = new CyclicBarrier(groups);
+        ExecutorService pool = Executors.newFixedThreadPool(groups);
+        try {
+            List<Future<List<Reservation>>> results = new ArrayList<>();
+            for (int g = 0; g < groups; g++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return hotel.reserveGroup(group);
+                }));
+            }
+            int booked = 0;
+            for (Future<List<Reservation>> f : results) booked += f.get() != null ? 1 : 0;
+            if (hotel.findAvailableRooms("2025-07-01", "2025-07-04").size() != rooms - booked * size) {
+                throw new AssertionError("free rooms do not match the groups booked");
+            }
+            return booked;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // bookings outside the limits are refused; searches there just find no rooms
+    private static void bookingLimits() {
+        System.out.println("Booking limits:");
+        Hotel hotel = new Hotel("Test");
+        Room room = new Room("101", "Deluxe", 100);
+        hotel.addRoom(room);
+        User guest = new User("Test Guest", "guest@example.com", "0000000000");
+        String from = LocalDate.now().plusDays(RoomCalendar.BOOKING_HORIZON_DAYS).toString();
+        String to = LocalDate.now().plusDays(RoomCalendar.BOOKING_HORIZON_DAYS + 2).toString();
+        check(hotel.findAvailableRooms(from, to).isEmpty() && hotel.findAvailableRooms(from, to, "Deluxe", 0, 1000).isEmpty()
+                && !hotel.isRoomFree(room, from, to), "a search beyond the horizon finds no rooms");
+        check(throwsIllegalArgument(() -> hotel.reserve(guest, room, from, to, 0)), "a booking beyond the horizon is refused");
+        check(throwsIllegalArgument(() -> hotel.findAvailableRooms(to, from)), "a search with check-out first is refused");
+    }
+
+    private static boolean throwsIllegalArgument(Runnable r) {
+        try {
+            r.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean throwsIllegalState(Runnable r) {
+        try {
+            r.run();
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            throw new AssertionError(what);
+        }
+        System.out.println("  ok  " + what);
     }
 
-    public void confirmReservation() {
-        isConfirmed = true;
-        // Send confirmation email or notification to guest
+    private static void deleteTree(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) Files.delete(f);
+        }
+        Files.delete(dir);
     }
 
-    public void cancelReservation() {
-        isCancelled = true;
-        // Calculate and charge cancellation fee
+    // a FileChannel whose writes, while failing is set, get half of their bytes to the file and then
+    // throw, like a disk that fills up or goes away in the middle of a batch
+    static final class FaultyChannel extends FileChannel {
+        private final FileChannel file;
+        volatile boolean failing;
+
+        FaultyChannel(FileChannel file) {
+            this.file = file;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            if (!failing) return file.write(src);
+            ByteBuffer half = src.duplicate();
+            half.limit(half.position() + half.remaining() / 2);
+            file.write(half);
+            src.position(half.position());
+            throw new IOException("injected write failure");
+        }
+
+        public void force(boolean metaData) throws IOException {
+            if (failing) throw new IOException("injected force failure");
+            file.force(metaData);
+        }
+
+        public int read(ByteBuffer dst) throws IOException { return file.read(dst); }
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException { return file.read(dsts, offset, length); }
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException { return file.write(srcs, offset, length); }
+        public long position() throws IOException { return file.position(); }
+        public FileChannel position(long newPosition) throws IOException { file.position(newPosition); return this; }
+        public long size() throws IOException { return file.size(); }
+        public FileChannel truncate(long size) throws IOException { file.truncate(size); return this; }
+        public long transferTo(long position, long count, java.nio.channels.WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+        public long transferFrom(java.nio.channels.ReadableByteChannel src, long position, long count) throws IOException {
+            return file.transferFrom(src, position, count);
+        }
+        public int read(ByteBuffer dst, long position) throws IOException { return file.read(dst, position); }
+        public int write(ByteBuffer src, long position) throws IOException { return file.write(src, position); }
+        public java.nio.MappedByteBuffer map(MapMode mode, long position, long size) throws IOException { return file.map(mode, position, size); }
+        public java.nio.channels.FileLock lock(long position, long size, boolean shared) throws IOException { return file.lock(position, size, shared); }
+        public java.nio.channels.FileLock tryLock(long position, long size, boolean shared) throws IOException { return file.tryLock(position, size, shared); }
+        protected void implCloseChannel() throws IOException { file.close(); }
     }
 }
 
 public class HotelReservationSystem {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            try {
+                BenchHarness.run(HotelReservationSystem.class, args, HotelBenchmark::run);
+            } catch (Exception e) {
+                System.err.println("Benchmark error: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--selftest")) {
+            try {
+                HotelSelfTest.run();
+            } catch (Exception | AssertionError e) {
+                System.err.println("Self-test failed: " + e);
+                System.exit(1);
+            }
+            return;
+        }
+
         Hotel hotel = new Hotel("My Hotel");
-        hotel.addRoom(new Room("101", "Deluxe", 100.0));
-        hotel.addRoom(new Room("102", "Standard", 80.0));
+        try {
+            hotel.openJournal("hotel.snapshot", "hotel.journal"); // bookings from earlier runs are restored
+        } catch (IOException e) {
+            System.err.println("Error opening hotel journal: " + e.getMessage());
+        }
+        if (hotel.roomCount() == 0) {
+            hotel.addRoom(new Room("101", "Deluxe", 100.0));
+            hotel.addRoom(new Room("102", "Standard", 80.0));
+        }
+        NotificationSpool spool = null;
+        try {
+            spool = NotificationSpool.open(Paths.get("notifications.spool")); // undelivered notifications from earlier runs are resent
+        } catch (IOException e) {
+            System.err.println("Error opening notification spool: " + e.getMessage());
+        }
+        NotificationOutbox outbox = new NotificationOutbox(new FileNotificationSink("notifications.log"), spool);
+        hotel.setNotifications(outbox);
 
         // User interface to search for rooms, make reservations, etc.
         Scanner scanner = new Scanner(System.in);
@@ -168,13 +2585,21 @@ public class HotelReservationSystem {
         List<Room> availableRooms = hotel.findAvailableRooms("2024-09-01", "2024-09-05");
         if (!availableRooms.isEmpty()) {
             Room selectedRoom = availableRooms.get(0); // Assuming user selects first available room
-            Reservation reservation = new Reservation(user, "2024-09-01", "2024-09-05", selectedRoom, 50.0);
-            reservation.confirmReservation();
-            System.out.println("Reservation confirmed. Reservation ID: " + reservation.getReservationId());
+            Reservation reservation = hotel.reserve(user, selectedRoom, "2024-09-01", "2024-09-05", 50.0);
+            if (reservation != null) {
+                reservation.confirmReservation();
+                System.out.println("Reservation confirmed. Reservation ID: " + reservation.getReservationId());
+            } else {
+                System.out.println("Room " + selectedRoom.getRoomNumber() + " was just booked by someone else.");
+            }
         } else {
             System.out.println("No rooms available for the specified dates.");
         }
 
-       
+        try {
+            outbox.close(5000); // let queued guest notifications reach notifications.log
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
@@ -28,6 +28,7 @@ class User {
     String username;
     double balance;
     Map<String, Integer> portfolio; // symbol -> quantity
+    PrintStream out = System.out;   // where trade confirmations go
 
     User(String username, double balance) {
         this.username = username;
@@ -38,35 +39,65 @@ class User {
     void buyStock(Stock stock, int quantity) {
         double cost = stock.price * quantity;
         if (cost > balance) {
-            System.out.println("❌ Insufficient balance to buy " + quantity + " shares of " + stock.symbol);
+            out.println("❌ Insufficient balance to buy " + quantity + " shares of " + stock.symbol);
             return;
         }
         balance -= cost;
         portfolio.put(stock.symbol, portfolio.getOrDefault(stock.symbol, 0) + quantity);
-        System.out.println("✅ Bought " + quantity + " shares of " + stock.symbol);
+        out.println("✅ Bought " + quantity + " shares of " + stock.symbol);
     }
 
     void sellStock(Stock stock, int quantity) {
         if (!portfolio.containsKey(stock.symbol) || portfolio.get(stock.symbol) < quantity) {
-            System.out.println("❌ Not enough shares to sell.");
+            out.println("❌ Not enough shares to sell.");
             return;
         }
         portfolio.put(stock.symbol, portfolio.get(stock.symbol) - quantity);
         balance += stock.price * quantity;
-        System.out.println("✅ Sold " + quantity + " shares of " + stock.symbol);
+        out.println("✅ Sold " + quantity + " shares of " + stock.symbol);
     }
 
     void showPortfolio(Map<String, Stock> market) {
-        System.out.println("\n📊 Portfolio of " + username + ":");
+        out.println("\n📊 Portfolio of " + username + ":");
         double totalValue = balance;
         for (String symbol : portfolio.keySet()) {
             int qty = portfolio.get(symbol);
             double stockValue = market.get(symbol).price * qty;
-            System.out.println(symbol + ": " + qty + " shares worth $" + stockValue);
+            out.println(symbol + ": " + qty + " shares worth $" + stockValue);
             totalValue += stockValue;
         }
-        System.out.println("💰 Balance: $" + balance);
-        System.out.println("📈 Total Portfolio Value: $" + totalValue);
+        out.println("💰 Balance: $" + balance);
+        out.println("📈 Total Portfolio Value: $" + totalValue);
+    }
+}
+
+// ----- Benchmark (java TradingPlatform --bench, timed by BenchHarness) -----
+class TradingBenchmark {
+    static void run() {
+        for (int symbols : new int[] { 100, 1000, 10000 }) {
+            Map<String, Stock> market = new HashMap<>();
+            String[] names = new String[symbols];
+            for (int i = 0; i < symbols; i++) {
+                names[i] = "S" + i;
+                market.put(names[i], new Stock(names[i], "Stock " + i, 10 + i % 500));
+            }
+            User user = new User("bench", 1e12);
+            // the confirmations are still formatted, just not shown, so the numbers measure the trading logic
+            user.out = new PrintStream(new OutputStream() {
+                public void write(int b) { }
+                public void write(byte[] b, int off, int len) { }
+            });
+            Random random = new Random(42);
+            BenchHarness.measure("buyStock", symbols, 200000, bh -> {
+                user.buyStock(market.get(names[random.nextInt(symbols)]), 1 + random.nextInt(10));
+                bh.consume(user.balance);
+            });
+            BenchHarness.measure("sellStock", symbols, 200000, bh -> {
+                user.sellStock(market.get(names[random.nextInt(symbols)]), 1);
+                bh.consume(user.balance);
+            });
+            BenchHarness.measure("showPortfolio", symbols, symbols >= 10000 ? 200 : 2000, bh -> user.showPortfolio(market));
+        }
     }
 }
 
@@ -76,6 +107,15 @@ public class TradingPlatform {
     private static Scanner scanner = new Scanner(System.in);
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            try {
+                BenchHarness.run(TradingPlatform.class, args, TradingBenchmark::run);
+            } catch (Exception e) {
+                System.err.println("Benchmark error: " + e.getMessage());
+            }
+            return;
+        }
+
         // Initialize Market Data
         market.put("AAPL", new Stock("AAPL", "Apple Inc.", 150));
         market.put("GOOG", new Stock("GOOG", "Alphabet Inc.", 2800));
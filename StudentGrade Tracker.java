@@ -1,10 +1,20 @@
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.Scanner;
 import java.io.FileWriter;
 import java.io.IOException;
 
 public class StudentGradeTracker {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            try {
+                BenchHarness.run(StudentGradeTracker.class, args, GradeBenchmark::run);
+            } catch (Exception e) {
+                System.err.println("Benchmark error: " + e.getMessage());
+            }
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         ArrayList<Integer> grades = new ArrayList<>();
 
@@ -104,3 +114,18 @@ public class StudentGradeTracker {
         }
     }
 }
+
+// java StudentGradeTracker --bench : grade statistics over 1k..1M students, timed by BenchHarness
+class GradeBenchmark {
+    static void run() {
+        for (int students : new int[] { 1000, 100000, 1000000 }) {
+            ArrayList<Integer> grades = new ArrayList<>(students);
+            Random random = new Random(42);
+            for (int i = 0; i < students; i++) grades.add(random.nextInt(101));
+            int ops = Math.max(50, 20000000 / students);
+            BenchHarness.measure("calculateAverage", students, ops, bh -> bh.consume(StudentGradeTracker.calculateAverage(grades)));
+            BenchHarness.measure("findHighest", students, ops, bh -> bh.consume(StudentGradeTracker.findHighest(grades)));
+            BenchHarness.measure("findLowest", students, ops, bh -> bh.consume(StudentGradeTracker.findLowest(grades)));
+        }
+    }
+}